@@ -0,0 +1,65 @@
+package com.example.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Inputs of the JMH benchmarks, from src/bench/resources/corpus.
+ * - pages/&lt;name&gt;.html: small pages, checked in. Captured pages can be dropped in as well.
+ * - generic-4mb, lightning-1mb, lightning-4mb: generated with the {@link DomFilterBenchmark}
+ *   generators (fixed seeds), so multi-MB pages do not bloat the repository.
+ * - pages/descriptions.properties: the element description each page is benchmarked with.
+ * - llm/: Ollama chat responses and a streamed answer, as the parsing paths receive them.
+ */
+final class BenchCorpus {
+
+    private static final Properties DESCRIPTIONS = new Properties();
+
+    static {
+        try (InputStream in = BenchCorpus.class.getResourceAsStream("/corpus/pages/descriptions.properties")) {
+            if (in != null) DESCRIPTIONS.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BenchCorpus() {
+    }
+
+    static String page(String name) {
+        switch (name) {
+            case "generic-4mb":
+                return DomFilterBenchmark.genericPage(6_000);
+            case "lightning-1mb":
+                return DomFilterBenchmark.lightningPage(600);
+            case "lightning-4mb":
+                return DomFilterBenchmark.lightningPage(2_400);
+            default:
+                return resource("/corpus/pages/" + name + ".html");
+        }
+    }
+
+    static String description(String page) {
+        return DESCRIPTIONS.getProperty(page, "Submit button");
+    }
+
+    static String resource(String path) {
+        try (InputStream in = BenchCorpus.class.getResourceAsStream(path)) {
+            if (in == null) throw new IllegalArgumentException("No corpus entry " + path);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Turns Trace off (-Dfonio.log.level=OFF) unless a level is given, so no log record is built or
+     * written while measuring. Call before the first traced class loads; Trace reads the level once.
+     */
+    static void quiet() {
+        if (System.getProperty("fonio.log.level") == null) System.setProperty("fonio.log.level", "OFF");
+    }
+}
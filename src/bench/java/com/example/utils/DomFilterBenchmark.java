@@ -0,0 +1,146 @@
+package com.example.utils;
+
+import org.jsoup.Jsoup;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the single-pass {@link DomUtils#filterRelevantHtml(String)} with the
+ * multi-pass reference ({@link MultiPassDomFilter}) on large synthetic pages.
+ * - That both give the same output is DomFilterEquivalenceTest's job, run by every mvn test.
+ * - Runs the variants round-robin and reports the median of each after warm-up,
+ *   so GC and JIT drift hit all of them alike.
+ * - Parsing is timed on its own: both paths pay it, so the speedup of the
+ *   post-parse work (filter + serialize) is reported next to the end-to-end one.
+ *
+ * Run with: mvn -Pbench test
+ */
+public class DomFilterBenchmark {
+
+    // ---------- Config ----------
+    private static final int WARMUP_RUNS = Integer.getInteger("fonio.bench.warmup", 10);
+    private static final int MEASURED_RUNS = Integer.getInteger("fonio.bench.runs", 15);
+
+    public static void main(String[] args) {
+        BenchCorpus.quiet();
+        PrintStream out = System.out;
+
+        String[][] pages = {
+                {"generic  ~1 MB", genericPage(1_500)},
+                {"generic  ~4 MB", genericPage(6_000)},
+                {"lightning ~1 MB", lightningPage(600)},
+                {"lightning ~4 MB", lightningPage(2_400)},
+        };
+
+        out.printf("%-16s %8s %10s %12s %12s %9s %11s%n",
+                "page", "size", "parse", "multi-pass", "single-pass", "overall", "post-parse");
+        for (String[] page : pages) {
+            String name = page[0];
+            String html = page[1];
+            double[] medians = medianMillis(
+                    () -> Jsoup.parse(html),
+                    () -> MultiPassDomFilter.filter(html),
+                    () -> DomUtils.filterRelevantHtml(html));
+            double floor = medians[0];
+            double multi = medians[1];
+            double single = medians[2];
+            out.printf("%-16s %7dK %8.1fms %10.1fms %10.1fms %8.2fx %10.2fx%n",
+                    name, html.length() / 1024, floor, multi, single,
+                    multi / single, (multi - floor) / Math.max(0.1, single - floor));
+        }
+    }
+
+    private static double[] medianMillis(Runnable... tasks) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            for (Runnable task : tasks) task.run();
+        }
+        double[][] times = new double[tasks.length][MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            for (int t = 0; t < tasks.length; t++) {
+                long start = System.nanoTime();
+                tasks[t].run();
+                times[t][i] = (System.nanoTime() - start) / 1_000_000.0;
+            }
+        }
+        double[] medians = new double[tasks.length];
+        for (int t = 0; t < tasks.length; t++) {
+            Arrays.sort(times[t]);
+            medians[t] = times[t][MEASURED_RUNS / 2];
+        }
+        return medians;
+    }
+
+    // ---------- Synthetic pages ----------
+
+    /** Storefront-style page: nav, product grid, hidden modals, inline noise. */
+    static String genericPage(int products) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(products * 900);
+        sb.append("<!doctype html><html><head><meta charset=\"utf-8\">")
+                .append("<meta name=\"viewport\" content=\"width=device-width\"><title>Shop</title>")
+                .append("<link rel=\"stylesheet\" href=\"/app.css\"><link rel=\"icon\" href=\"/f.ico\">")
+                .append("<style>.card{display:flex}</style><script>window.dataLayer=[];</script></head><body>")
+                .append("<header class=\"site-header\"><nav><ul>");
+        for (int i = 0; i < 12; i++) {
+            sb.append("<li><a href=\"/c/").append(i).append("\" class=\"nav-link\" onclick=\"track(").append(i)
+                    .append(")\"><span>Category ").append(i).append("</span></a></li>");
+        }
+        sb.append("</ul></nav><form role=\"search\"><input type=\"search\" name=\"q\" placeholder=\"Search\">")
+                .append("<button type=\"submit\"><svg viewBox=\"0 0 10 10\"><path d=\"M0 0L10 10\"/></svg>Search</button></form></header>")
+                .append("<main><div class=\"grid\">");
+        for (int i = 0; i < products; i++) {
+            sb.append("<div class=\"card\" data-product-id=\"").append(i).append("\" style=\"order:").append(i).append("\">")
+                    .append("<div class=\"media\"><img src=\"/p/").append(i).append(".jpg\" alt=\"Product ").append(i).append("\" loading=\"lazy\"></div>")
+                    .append("<div class=\"body\"><h3><span>Product <b>").append(i).append("</b></span></h3>")
+                    .append("<p>Price <i>$").append(random.nextInt(500)).append(".99</i> <font color=\"red\">sale</font></p>")
+                    .append("<div class=\"spacer\"></div><div><div></div></div>")
+                    .append("<span><span>in</span> <span>stock</span></span>")
+                    .append("<button type=\"button\" class=\"btn\" data-action=\"add\" tabindex=\"0\">Add to cart</button>")
+                    .append("<div style=\"display:none\" class=\"tooltip\">Added!<a href=\"#\">Undo</a></div>")
+                    .append("<div hidden=\"hidden\" id=\"qv-").append(i).append("\"><input name=\"qty-").append(i).append("\"></div>")
+                    .append("</div></div>");
+            if (i % 50 == 0) {
+                sb.append("<script>lazy(").append(i).append(")</script><noscript>Enable JS</noscript>");
+            }
+        }
+        sb.append("</div></main><footer><p>&copy; Shop</p><span aria-hidden=\"true\">&nbsp;</span></footer></body></html>");
+        return sb.toString();
+    }
+
+    /** Lightning-style record page: global header, nav bar, related lists, deep wrapper nesting. */
+    static String lightningPage(int rows) {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder(rows * 2_000);
+        sb.append("<html><head><title>Account | Salesforce</title><script src=\"/aura.js\"></script></head>")
+                .append("<body class=\"desktop auraBody\"><div id=\"auraLoadingBox\" style=\"display:none\"></div>")
+                .append("<div class=\"slds-global-header slds-grid\"><div class=\"slds-global-header__item\"></div>")
+                .append("<div class=\"slds-global-header__item\"><input type=\"search\" placeholder=\"Search...\"></div></div>")
+                .append("<div class=\"slds-context-bar\"><div class=\"slds-context-bar__primary\"></div></div>")
+                .append("<div class=\"forceBrandBand\"><div class=\"slds-brand-band\"></div></div>")
+                .append("<div class=\"slds-page-header\" data-aura-class=\"forceHighlightsPanel\"><h1>")
+                .append("<span class=\"slds-page-header__title\">Acme Corp</span></h1>")
+                .append("<button class=\"slds-button\" name=\"Edit\">Edit</button></div>")
+                .append("<div class=\"oneContent\"><div class=\"forceRelatedListContainer\">");
+        for (int i = 0; i < rows; i++) {
+            sb.append("<div class=\"slds-card forceRelatedListSingleContainer\" data-aura-rendered-by=\"").append(i).append(":0\">")
+                    .append("<div class=\"slds-card__header\"><div class=\"slds-media\"><div class=\"slds-media__figure\">")
+                    .append("<span class=\"slds-icon_container\"><svg class=\"slds-icon\"><use href=\"#account\"></use></svg></span></div>")
+                    .append("<div class=\"slds-media__body\"><h2><a href=\"/lightning/r/").append(i).append("\" class=\"slds-card__header-link\">")
+                    .append("<span>Contact ").append(i).append("</span></a></h2></div></div></div>")
+                    .append("<div class=\"slds-card__body\"><table class=\"slds-table\"><tbody><tr>")
+                    .append("<td data-label=\"Name\"><div class=\"slds-truncate\"><span><span>Name ").append(i).append("</span></span></div></td>")
+                    .append("<td data-label=\"Phone\"><lightning-formatted-phone><a href=\"tel:").append(random.nextInt(99999))
+                    .append("\">").append(random.nextInt(99999)).append("</a></lightning-formatted-phone></td>")
+                    .append("<td><div class=\"forceVirtualActionMarker\" style=\"display:none\"><div class=\"uiMenu\"><a role=\"button\">Show actions</a></div></div></td>")
+                    .append("<td><div class=\"uiPopupTrigger\" aria-hidden=\"true\"><div class=\"uiTooltip\"></div></div></td>")
+                    .append("</tr></tbody></table></div>")
+                    .append("<div class=\"slds-card__footer\"><span class=\"view-all-label\"><b>View All</b></span></div>")
+                    .append("<div class=\"slds-assistive-text\" aria-live=\"polite\"></div><div class=\"slds-spinner_container\" hidden=\"true\"></div>")
+                    .append("</div>");
+        }
+        sb.append("</div></div><div class=\"slds-nav-vertical\"><div></div></div></body></html>");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.utils;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * The single-pass {@link DomUtils#filterRelevantHtml(String)} gives the same output as the
+ * multi-pass reference {@link MultiPassDomFilter} on the corpus pages and the synthetic
+ * generic and Lightning pages of {@link DomFilterBenchmark}.
+ */
+public class DomFilterEquivalenceTest {
+
+    @DataProvider
+    public Object[][] pages() {
+        return new Object[][] {
+                {"generic-small", BenchCorpus.page("generic-small")},
+                {"internet-login", BenchCorpus.page("internet-login")},
+                {"internet-dynamic-loading", BenchCorpus.page("internet-dynamic-loading")},
+                // Under the output cap, so the whole filtered page is compared
+                {"generic", DomFilterBenchmark.genericPage(200)},
+                {"lightning", DomFilterBenchmark.lightningPage(80)},
+                {"generic ~1 MB", DomFilterBenchmark.genericPage(1_500)},
+                {"lightning ~1 MB", DomFilterBenchmark.lightningPage(600)},
+                {"nothing left after filtering", "<html><body><div style=\"display:none\">gone</div></body></html>"},
+        };
+    }
+
+    @Test(dataProvider = "pages")
+    public void singlePassMatchesMultiPass(String name, String html) {
+        assertEquals(DomUtils.filterRelevantHtml(html), MultiPassDomFilter.filter(html), name);
+    }
+}
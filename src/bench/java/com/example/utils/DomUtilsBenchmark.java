@@ -0,0 +1,69 @@
+package com.example.utils;
+
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH throughput of the DomUtils hot paths over the corpus pages (see {@link BenchCorpus}).
+ * - filterRelevantHtml: raw HTML, raw HTML + description, and snapshot + description.
+ * - extractSnippetByDescription and findSeeds on a prebuilt snapshot and index, as steps call them.
+ * Allocation rate comes from the gc profiler the bench profile enables.
+ *
+ * Run with: mvn -Pbench test -Dfonio.bench.jmh=DomUtilsBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class DomUtilsBenchmark {
+
+    @Param({"generic-small", "internet-login", "internet-dynamic-loading", "generic-4mb", "lightning-1mb", "lightning-4mb"})
+    public String page;
+
+    private String html;
+    private String description;
+    private DomSnapshot snapshot;
+    private DomIndex index;
+
+    @Setup(Level.Trial)
+    public void load() {
+        BenchCorpus.quiet();
+        html = BenchCorpus.page(page);
+        description = BenchCorpus.description(page);
+        snapshot = DomUtils.snapshot(html);
+        index = snapshot.index();
+    }
+
+    // ---------- Filtering ----------
+
+    @Benchmark
+    public String filterRelevantHtml() {
+        return DomUtils.filterRelevantHtml(html);
+    }
+
+    @Benchmark
+    public String filterRelevantHtmlForDescription() {
+        return DomUtils.filterRelevantHtml(html, description);
+    }
+
+    @Benchmark
+    public String filterRelevantHtmlFromSnapshot() {
+        return DomUtils.filterRelevantHtml(snapshot, description);
+    }
+
+    // ---------- Snippets ----------
+
+    @Benchmark
+    public String extractSnippetByDescription() {
+        return DomUtils.extractSnippetByDescription(snapshot, description);
+    }
+
+    @Benchmark
+    public Elements findSeeds() {
+        return DomUtils.findSeeds(index, description);
+    }
+}
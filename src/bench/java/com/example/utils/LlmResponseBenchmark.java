@@ -0,0 +1,68 @@
+package com.example.utils;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * JMH throughput of the LLMClient response parsing paths over the recorded answers in corpus/llm.
+ * - Plain chat answer: envelope, then locator JSON.
+ * - Batch answer: one locator per element id.
+ * - Streamed answer: NDJSON chunks through the incremental scanner, as streamLocator reads them.
+ * No model or network is involved; the client is built without a router.
+ *
+ * Run with: mvn -Pbench test -Dfonio.bench.jmh=LlmResponseBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LlmResponseBenchmark {
+
+    private static final String DESCRIPTION = "Login button";
+
+    private LLMClient client;
+    private String chat;
+    private String batch;
+    private List<String> stream;
+
+    @Setup(Level.Trial)
+    public void load() {
+        BenchCorpus.quiet();
+        client = new LLMClient(null);
+        chat = BenchCorpus.resource("/corpus/llm/chat-locator.json");
+        batch = BenchCorpus.resource("/corpus/llm/chat-batch.json");
+        stream = BenchCorpus.resource("/corpus/llm/stream-locator.ndjson").lines().collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public String parseResponse() {
+        return client.parseLLMResponse(chat);
+    }
+
+    @Benchmark
+    public String locatorFromChat() {
+        return client.toLocator(client.parseLLMResponse(chat), DESCRIPTION, "");
+    }
+
+    @Benchmark
+    public JSONObject batchAnswer() {
+        return client.batchAnswer(client.parseLLMResponse(batch));
+    }
+
+    @Benchmark
+    public String scanStream() {
+        LLMClient.JsonObjectScanner scanner = new LLMClient.JsonObjectScanner();
+        for (String line : stream) {
+            JSONObject message = new JSONObject(line).optJSONObject("message");
+            String locator = scanner.feed(message == null ? "" : message.optString("content"));
+            if (locator != null) return locator;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.utils;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference for the single-pass filter of {@link DomUtils#filterRelevantHtml(String)}: the
+ * original pipeline, one selector scan or tree walk per rule.
+ * - DomFilterEquivalenceTest checks that both produce the same output.
+ * - {@link DomFilterBenchmark} measures the single pass against it.
+ */
+final class MultiPassDomFilter {
+
+    private static final Trace LOG = Trace.of(MultiPassDomFilter.class);
+
+    private MultiPassDomFilter() {
+    }
+
+    /** Filters the page like {@link DomUtils#filterRelevantHtml(String)}, one tree walk per rule. */
+    static String filter(String rawHtml) {
+        if (rawHtml == null || rawHtml.isEmpty()) return "";
+        Document doc = Jsoup.parse(rawHtml);
+        boolean isSalesforce = isSalesforceLightning(doc);
+        baseStrip(doc);
+        stripHidden(doc, isSalesforce);
+        if (isSalesforce) {
+            stripSalesforceChromeSafe(doc);
+        }
+        unwrapNonKeptTags(doc);
+        pruneAttributesSafe(doc);
+        removeEmptyNodes(doc);
+        String out = DomUtils.compact(doc.body().html());
+        if (out.isEmpty()) {
+            return rawHtml.length() > DomUtils.MAX_OUTPUT_CHARS ? rawHtml.substring(0, DomUtils.MAX_OUTPUT_CHARS) : rawHtml;
+        }
+        return DomUtils.cap(out, DomUtils.MAX_OUTPUT_CHARS);
+    }
+
+    /** Detects if this is a Salesforce Lightning DOM. */
+    private static boolean isSalesforceLightning(Document doc) {
+        // More specific Salesforce detection
+        return doc.select("body.auraBody, #auraLoadingBox, .slds-global-header, [data-aura-class]").size() > 0 ||
+               doc.select("div[class*='slds-'], div[class*='force'], div[class*='ui']").size() > 5;
+    }
+
+    /** Removes scripts, styles, meta, link, and other non-UI noise. */
+    private static void baseStrip(Document doc) {
+        // More selective removal - keep some meta elements that might be useful
+        doc.select("script, style, noscript, svg, canvas, video, audio, source, track").remove();
+        // Keep link and meta but remove non-essential ones
+        doc.select("link[rel='stylesheet'], link[rel='icon']").remove();
+        doc.select("meta[name='viewport'], meta[charset]").remove();
+    }
+
+    /** Removes truly hidden elements. */
+    private static void stripHidden(Document doc, boolean isSalesforce) {
+        for (Element el : doc.select("*")) {
+            String style = el.attr("style").toLowerCase();
+            String hiddenAttr = el.attr("hidden");
+            String ariaHidden = el.attr("aria-hidden");
+
+            boolean isHidden = (style.contains("display:none") || 
+                              style.contains("visibility:hidden") || 
+                              !hiddenAttr.isEmpty() ||
+                              "true".equals(ariaHidden));
+            
+            if (isHidden) {
+                // In SF, skip removing if it contains interactive elements (might be lazy-loaded)
+                if (isSalesforce && el.select("a, button, input, select, textarea").size() > 0) continue;
+                // Don't remove if it has important attributes for identification
+                if (el.hasAttr("id") || el.hasAttr("name") || el.hasAttr("data-testid")) continue;
+                el.remove();
+            }
+        }
+    }
+
+    /** Strips only known irrelevant Salesforce chrome, keeps utility bar and functional UI. */
+    private static void stripSalesforceChromeSafe(Document doc) {
+        // More conservative Salesforce chrome removal
+        Elements chromeParts = doc.select(
+                ".slds-global-header," +
+                ".slds-context-bar," +
+                ".forceBrandBand," +
+                ".slds-nav-vertical," +
+                ".slds-page-header"
+        );
+        for (Element e : chromeParts) {
+            // Keep elements that contain interactive elements or have important attributes
+            if (e.select("a, button, input, select, textarea").size() > 0 ||
+                e.hasAttr("id") || e.hasAttr("data-testid") || e.hasAttr("data-qa")) {
+                continue;
+            }
+            // Only remove if it's purely decorative
+            if (e.text().trim().isEmpty() && e.select("img").isEmpty()) {
+                e.remove();
+            }
+        }
+    }
+
+    /** Unwrap tags that are not semantically important, but preserve content. */
+    private static void unwrapNonKeptTags(Document doc) {
+        // More selective unwrapping - only unwrap if content is preserved
+        Elements spans = doc.select("span");
+        for (Element span : spans) {
+            // Don't unwrap spans with important attributes
+            if (span.hasAttr("id") || span.hasAttr("class") || span.hasAttr("data-testid")) {
+                continue;
+            }
+            // Only unwrap if it doesn't break the structure
+            if (span.parent() != null && span.children().size() <= 1) {
+                try {
+                    span.unwrap();
+                } catch (Exception e) {
+                    // If unwrapping fails, keep the span
+                    LOG.debug(() -> "Failed to unwrap span: " + e.getMessage());
+                }
+            }
+        }
+        
+        // Remove purely decorative tags
+        doc.select("font, b, i, u").forEach(el -> {
+            if (el.parent() != null && !el.hasAttr("id") && !el.hasAttr("class")) {
+                try {
+                    el.unwrap();
+                } catch (Exception e) {
+                    // Keep if unwrapping fails
+                }
+            }
+        });
+    }
+
+    /** Keep only functional attributes that are crucial for element identification. */
+    private static void pruneAttributesSafe(Document doc) {
+        for (Element el : doc.getAllElements()) {
+            // Create a modifiable copy of attributes to avoid UnsupportedOperationException
+            List<Attribute> attributesToRemove = new ArrayList<>();
+            
+            for (Attribute attr : el.attributes()) {
+                String key = attr.getKey();
+                String value = attr.getValue();
+                
+                // Check if this attribute should be removed
+                boolean shouldRemove = true;
+                
+                // Keep crucial attributes for element identification
+                if (key.equals("id") || key.equals("name") || key.equals("type") || 
+                    key.equals("value") || key.equals("placeholder") || key.equals("title") ||
+                    key.equals("href") || key.equals("src") || key.equals("alt") ||
+                    key.equals("class") || key.equals("role") || key.equals("for")) {
+                    shouldRemove = false;
+                }
+                
+                // Keep accessibility and testing attributes
+                if (key.startsWith("aria-") || key.startsWith("data-") || 
+                    key.startsWith("data-test") || key.startsWith("data-qa")) {
+                    shouldRemove = false;
+                }
+                
+                // Keep Salesforce-specific attributes
+                if (key.startsWith("force-") || key.startsWith("aura-") || 
+                    key.startsWith("lightning-") || key.startsWith("slds-")) {
+                    shouldRemove = false;
+                }
+                
+                if (shouldRemove) {
+                    attributesToRemove.add(attr);
+                }
+            }
+            
+            // Remove the attributes that should be removed
+            for (Attribute attr : attributesToRemove) {
+                el.removeAttr(attr.getKey());
+            }
+        }
+    }
+
+    /** Removes tags with no text and no children. Form controls are kept: they never have text. */
+    private static void removeEmptyNodes(Document doc) {
+        for (Element el : doc.select("*")) {
+            if (el.children().isEmpty() && el.text().trim().isEmpty() && !isFormControl(el)) {
+                el.remove();
+            }
+        }
+    }
+
+    private static boolean isFormControl(Element e) {
+        String tag = e.tagName();
+        return "input".equals(tag) || "select".equals(tag) || "textarea".equals(tag) || "button".equals(tag);
+    }
+}
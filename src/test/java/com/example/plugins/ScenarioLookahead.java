@@ -0,0 +1,54 @@
+package com.example.plugins;
+
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.PickleStepTestStep;
+import io.cucumber.plugin.event.TestCaseStarted;
+import io.cucumber.plugin.event.TestStep;
+import io.cucumber.plugin.event.TestStepStarted;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tracks the steps of the scenario running on the current thread so step
+ * definitions can look ahead (see locator prefetch in GenericSteps).
+ * Concurrent listeners receive events on the thread that runs the scenario,
+ * so per-thread state is enough for parallel runs.
+ */
+public class ScenarioLookahead implements ConcurrentEventListener {
+
+    private static final ThreadLocal<List<String>> STEPS = ThreadLocal.withInitial(ArrayList::new);
+    private static final ThreadLocal<Integer> CURRENT = ThreadLocal.withInitial(() -> -1);
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestCaseStarted.class, this::onTestCaseStarted);
+        publisher.registerHandlerFor(TestStepStarted.class, this::onTestStepStarted);
+    }
+
+    private void onTestCaseStarted(TestCaseStarted event) {
+        List<String> steps = new ArrayList<>();
+        for (TestStep step : event.getTestCase().getTestSteps()) {
+            if (step instanceof PickleStepTestStep) {
+                steps.add(((PickleStepTestStep) step).getStep().getText());
+            }
+        }
+        STEPS.set(steps);
+        CURRENT.set(-1);
+    }
+
+    private void onTestStepStarted(TestStepStarted event) {
+        if (event.getTestStep() instanceof PickleStepTestStep) {
+            CURRENT.set(CURRENT.get() + 1);
+        }
+    }
+
+    /** Text of the steps after the one currently running, in order. */
+    public static List<String> upcomingSteps() {
+        List<String> steps = STEPS.get();
+        int next = CURRENT.get() + 1;
+        return next < steps.size() ? new ArrayList<>(steps.subList(next, steps.size())) : Collections.emptyList();
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.plugins;
+
+import com.example.utils.StepMetrics;
+import com.example.utils.Trace;
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.HookTestStep;
+import io.cucumber.plugin.event.PickleStepTestStep;
+import io.cucumber.plugin.event.TestRunFinished;
+import io.cucumber.plugin.event.TestStep;
+import io.cucumber.plugin.event.TestStepFinished;
+import io.cucumber.plugin.event.TestStepStarted;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Per-step latency breakdown from {@link StepMetrics}, written when the run finishes:
+ * - fonio-metrics.json: per step type (step definition pattern) and per phase, count, p50/p95/p99,
+ *   mean and max in ms, plus counters (cache hits, prompt chars, tokens, fallback locators...).
+ * - fonio-metrics.prom: the same as Prometheus text-format summaries and counters.
+ * - cascade: share of locator requests the small models could not answer (-Dfonio.llm.cascade).
+ * "other" is step time outside any timed phase. Output directory: -Dfonio.metrics.dir (target).
+ */
+public class StepMetricsReporter implements ConcurrentEventListener {
+
+    private static final Trace LOG = Trace.of(StepMetricsReporter.class);
+
+    private static final String DIR = System.getProperty("fonio.metrics.dir", "target");
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+    private static final String ALL_STEPS = "all";
+
+    // step type -> phase ("step" for the whole step) -> samples in ns
+    private final Map<String, Map<String, List<Long>>> samples = new TreeMap<>();
+    private final Map<String, Map<String, Long>> counters = new TreeMap<>();
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestStepStarted.class, event -> StepMetrics.beginStep());
+        publisher.registerHandlerFor(TestStepFinished.class, this::onTestStepFinished);
+        publisher.registerHandlerFor(TestRunFinished.class, event -> write());
+    }
+
+    private void onTestStepFinished(TestStepFinished event) {
+        StepMetrics.Step step = StepMetrics.endStep();
+        if (step == null) return;
+        long total = event.getResult().getDuration().toNanos();
+        String type = typeOf(event.getTestStep());
+        Map<String, Long> phases = step.phaseNanos();
+        long timed = 0;
+        for (long nanos : phases.values()) timed += nanos;
+        synchronized (this) {
+            for (String key : Arrays.asList(type, ALL_STEPS)) {
+                record(key, "step", total);
+                for (Map.Entry<String, Long> phase : phases.entrySet()) record(key, phase.getKey(), phase.getValue());
+                record(key, "other", Math.max(0, total - timed));
+                Map<String, Long> stepCounters = counters.computeIfAbsent(key, k -> new TreeMap<>());
+                step.counters().forEach((name, value) -> stepCounters.merge(name, value, Long::sum));
+            }
+        }
+    }
+
+    private void record(String type, String phase, long nanos) {
+        samples.computeIfAbsent(type, k -> new LinkedHashMap<>()).computeIfAbsent(phase, k -> new ArrayList<>()).add(nanos);
+    }
+
+    private static String typeOf(TestStep step) {
+        if (step instanceof PickleStepTestStep) return ((PickleStepTestStep) step).getPattern();
+        if (step instanceof HookTestStep) return "hook " + ((HookTestStep) step).getHookType();
+        return step.getClass().getSimpleName();
+    }
+
+    // ---------- Reports ----------
+
+    private synchronized void write() {
+        StepMetrics.Step background = StepMetrics.background();
+        try {
+            Path dir = Paths.get(DIR);
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve("fonio-metrics.json"), json(background).toString(2), StandardCharsets.UTF_8);
+            Files.writeString(dir.resolve("fonio-metrics.prom"), prometheus(background), StandardCharsets.UTF_8);
+            LOG.info(() -> "Step metrics written to " + dir.resolve("fonio-metrics.json") + " and fonio-metrics.prom");
+        } catch (IOException e) {
+            LOG.warn(() -> "Failed to write step metrics: " + e.getMessage());
+        }
+    }
+
+    private JSONObject json(StepMetrics.Step background) {
+        JSONObject steps = new JSONObject();
+        for (Map.Entry<String, Map<String, List<Long>>> type : samples.entrySet()) {
+            JSONObject phases = new JSONObject();
+            for (Map.Entry<String, List<Long>> phase : type.getValue().entrySet()) {
+                List<Long> sorted = sorted(phase.getValue());
+                JSONObject stats = new JSONObject()
+                        .put("count", sorted.size())
+                        .put("meanMs", millis(sum(sorted) / sorted.size()))
+                        .put("maxMs", millis(sorted.get(sorted.size() - 1)));
+                for (double q : QUANTILES) stats.put("p" + Math.round(q * 100) + "Ms", millis(quantile(sorted, q)));
+                phases.put(phase.getKey(), stats);
+            }
+            steps.put(type.getKey(), new JSONObject()
+                    .put("phases", phases)
+                    .put("counters", new JSONObject(counters.getOrDefault(type.getKey(), Collections.emptyMap()))));
+        }
+        JSONObject backgroundPhases = new JSONObject();
+        background.phaseNanos().forEach((phase, nanos) -> backgroundPhases.put(phase, millis(nanos)));
+        JSONObject report = new JSONObject()
+                .put("steps", steps)
+                .put("background", new JSONObject()
+                        .put("phaseTotalsMs", backgroundPhases)
+                        .put("counters", new JSONObject(background.counters())));
+        long requests = total("cascade.requests", background);
+        if (requests > 0) {
+            long escalated = total("cascade.escalated", background);
+            report.put("cascade", new JSONObject()
+                    .put("requests", requests)
+                    .put("escalated", escalated)
+                    .put("escalationRate", Math.round(10_000.0 * escalated / requests) / 10_000.0));
+        }
+        return report;
+    }
+
+    private String prometheus(StepMetrics.Step background) {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP fonio_step_phase_seconds Time per step and phase; phase \"step\" is the whole step.\n")
+                .append("# TYPE fonio_step_phase_seconds summary\n");
+        for (Map.Entry<String, Map<String, List<Long>>> type : samples.entrySet()) {
+            for (Map.Entry<String, List<Long>> phase : type.getValue().entrySet()) {
+                List<Long> sorted = sorted(phase.getValue());
+                String labels = "step=\"" + escape(type.getKey()) + "\",phase=\"" + escape(phase.getKey()) + "\"";
+                for (double q : QUANTILES) {
+                    out.append("fonio_step_phase_seconds{").append(labels).append(",quantile=\"").append(q).append("\"} ")
+                            .append(seconds(quantile(sorted, q))).append('\n');
+                }
+                out.append("fonio_step_phase_seconds_sum{").append(labels).append("} ").append(seconds(sum(sorted))).append('\n')
+                        .append("fonio_step_phase_seconds_count{").append(labels).append("} ").append(sorted.size()).append('\n');
+            }
+        }
+        out.append("# HELP fonio_step_events_total Counters per step type.\n")
+                .append("# TYPE fonio_step_events_total counter\n");
+        for (Map.Entry<String, Map<String, Long>> type : counters.entrySet()) {
+            for (Map.Entry<String, Long> counter : type.getValue().entrySet()) {
+                out.append("fonio_step_events_total{step=\"").append(escape(type.getKey())).append("\",event=\"")
+                        .append(escape(counter.getKey())).append("\"} ").append(counter.getValue()).append('\n');
+            }
+        }
+        out.append("# HELP fonio_background_seconds_total Time spent outside steps, e.g. prefetch.\n")
+                .append("# TYPE fonio_background_seconds_total counter\n");
+        background.phaseNanos().forEach((phase, nanos) -> out.append("fonio_background_seconds_total{phase=\"")
+                .append(escape(phase)).append("\"} ").append(seconds(nanos)).append('\n'));
+        out.append("# HELP fonio_background_events_total Counters outside steps.\n")
+                .append("# TYPE fonio_background_events_total counter\n");
+        background.counters().forEach((counter, value) -> out.append("fonio_background_events_total{event=\"")
+                .append(escape(counter)).append("\"} ").append(value).append('\n'));
+        long requests = total("cascade.requests", background);
+        if (requests > 0) {
+            out.append("# HELP fonio_cascade_escalation_ratio Locator requests the cascade models passed on to the final model.\n")
+                    .append("# TYPE fonio_cascade_escalation_ratio gauge\n")
+                    .append("fonio_cascade_escalation_ratio ")
+                    .append((double) total("cascade.escalated", background) / requests).append('\n');
+        }
+        return out.toString();
+    }
+
+    // ---------- Helpers ----------
+
+    /** A counter over all steps and the background. */
+    private long total(String counter, StepMetrics.Step background) {
+        return counters.getOrDefault(ALL_STEPS, Collections.emptyMap()).getOrDefault(counter, 0L)
+                + background.counters().getOrDefault(counter, 0L);
+    }
+
+    private static List<Long> sorted(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /** Nearest-rank quantile of sorted samples. */
+    private static long quantile(List<Long> sorted, double q) {
+        int rank = (int) Math.ceil(q * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    private static long sum(List<Long> values) {
+        long sum = 0;
+        for (long value : values) sum += value;
+        return sum;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000.0;
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -7,7 +7,8 @@ import org.testng.annotations.Test;
 @CucumberOptions(
     features = "src/test/resources/features",
     glue = "com.example.steps",
-    plugin = {"pretty", "html:target/cucumber-report.html"}
+    plugin = {"pretty", "html:target/cucumber-report.html", "com.example.plugins.ScenarioLookahead",
+        "com.example.plugins.StepMetricsReporter"}
 )
 @Test
 public class CucumberTest extends AbstractTestNGCucumberTests {
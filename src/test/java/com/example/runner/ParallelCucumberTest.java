@@ -0,0 +1,18 @@
+package com.example.runner;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Runs scenarios concurrently. Enabled by the "parallel" Maven profile;
+ * the number of workers comes from -Dfonio.threads (TestNG dataproviderthreadcount).
+ */
+@Test
+public class ParallelCucumberTest extends CucumberTest {
+
+    @Override
+    @DataProvider(parallel = true)
+    public Object[][] scenarios() {
+        return super.scenarios();
+    }
+}
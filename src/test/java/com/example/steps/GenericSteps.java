@@ -1,189 +1,372 @@
 package com.example.steps;
 
+import com.example.plugins.ScenarioLookahead;
+import com.example.utils.BrowserDomExtractor;
+import com.example.utils.BrowserPool;
+import com.example.utils.DomJournal;
+import com.example.utils.DomSnapshot;
 import com.example.utils.DomUtils;
+import com.example.utils.JfrEvents;
 import io.cucumber.java.*;
 import io.cucumber.java.en.*;
-import org.json.JSONObject;
 import org.openqa.selenium.*;
-import org.openqa.selenium.chrome.ChromeDriver;
 import org.testng.Assert;
 import com.example.utils.LLMClient;
+import com.example.utils.LocalLocatorResolver;
+import com.example.utils.LocatorCache;
+import com.example.utils.LocatorPrefetcher;
+import com.example.utils.LocatorProbe;
+import com.example.utils.LocatorRegistry;
+import com.example.utils.PageWaits;
+import com.example.utils.StepMetrics;
+import com.example.utils.Trace;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class GenericSteps {
 
-    private static WebDriver driver;
-    private static LLMClient llmClient;
+    private static final Trace LOG = Trace.of(GenericSteps.class);
+
+    // Shared across parallel workers: all are thread-safe
+    private static final LLMClient llmClient = new LLMClient();
+    private static final LocatorCache locatorCache = LocatorCache.isEnabled() ? new LocatorCache() : null;
+    private static final LocatorRegistry locatorRegistry = LocatorRegistry.isEnabled() ? new LocatorRegistry() : null;
+
+    // Element steps whose targets can be resolved ahead of time
+    private static final Pattern CLICK_STEP = Pattern.compile("I click on \"(.+)\"");
+    private static final Pattern ENTER_STEP = Pattern.compile("I enter \".*\" in \"(.+)\"");
+    private static final Pattern ENTER_USERNAME_STEP = Pattern.compile("I enter username \".*\"");
+    private static final Pattern ENTER_PASSWORD_STEP = Pattern.compile("I enter password \".*\"");
+
+    // Cucumber creates one GenericSteps per scenario, so the driver is scenario-local
+    private WebDriver driver;
+    private PageWaits waits;
+    private LocatorProbe probe;
+    private final LocatorPrefetcher prefetcher = new LocatorPrefetcher();
+    private final DomJournal journal = BrowserDomExtractor.isIncremental() ? new DomJournal() : null;
+    private DomSnapshot snapshot;
 
     @Before
-    public void setup() {
-        if (driver == null) {
-            // Make sure ChromeDriver is in PATH or set system property
-            driver = new ChromeDriver();
-            driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
-        }
-        if (llmClient == null) {
-            llmClient = new LLMClient();
-        }
+    public void setup(Scenario scenario) {
+        Trace.beginScenario(scenario.getName());
+        // Browsers are pre-warmed and reused; see BrowserPool
+        driver = BrowserPool.shared().checkout();
+        // Lookups return at once; steps wait for conditions through PageWaits instead
+        driver.manage().timeouts().implicitlyWait(Duration.ZERO);
+        waits = new PageWaits(driver);
+        probe = new LocatorProbe(driver);
     }
 
     @After
     public void teardown() {
+        Trace.endScenario();
+        prefetcher.clear();
+        snapshot = null;
+        if (journal != null) journal.reset();
         if (driver != null) {
-            driver.quit();
+            BrowserPool.shared().release(driver);
             driver = null;
+            waits = null;
+            probe = null;
         }
     }
 
     @Given("I navigate to {string}")
     public void i_navigate_to(String url) {
-        System.out.println("Navigating to: " + url);
-        driver.get(url);
+        LOG.info(() -> "Navigating to: " + url);
+        try (StepMetrics.Timer t = StepMetrics.start("navigate")) {
+            JfrEvents.driverCommand("get", url, () -> driver.get(url));
+        }
+        waits.settle();
+        if (journal != null) {
+            // Installs the mutation journal on the new page
+            currentSnapshot();
+        }
+        prefetchUpcomingLocators();
     }
 
 
 
     @When("I enter username {string}")
     public void i_enter_username(String username) throws Exception {
-        String locator = getLocatorForElement("username field");
-        LocatorHolder locators = parseLocator(locator);
-        try {
-            driver.findElement(locators.primary).sendKeys(username);
-        } catch (NoSuchElementException e) {
-            if (locators.fallback != null) {
-                driver.findElement(locators.fallback).sendKeys(username);
-            } else {
-                throw e;
-            }
+        WebElement element = elementFor("username field");
+        try (StepMetrics.Timer t = StepMetrics.start("action")) {
+            JfrEvents.driverCommand("sendKeys", "username field", () -> element.sendKeys(username));
         }
     }
 
     @When("I enter password {string}")
     public void i_enter_password(String password) throws Exception {
-        String locator = getLocatorForElement("password field");
-        LocatorHolder locators = parseLocator(locator);
-        try {
-            driver.findElement(locators.primary).sendKeys(password);
-        } catch (NoSuchElementException e) {
-            if (locators.fallback != null) {
-                driver.findElement(locators.fallback).sendKeys(password);
-            } else {
-                throw e;
-            }
+        WebElement element = elementFor("password field");
+        try (StepMetrics.Timer t = StepMetrics.start("action")) {
+            JfrEvents.driverCommand("sendKeys", "password field", () -> element.sendKeys(password));
         }
     }
 
     @When("I click on {string}")
     public void i_click_on(String buttonText) throws Exception {
-        String locator = getLocatorForElement( buttonText );
-        LocatorHolder locators = parseLocator(locator);
-        try {
+        WebElement element = elementFor(buttonText);
+        try (StepMetrics.Timer t = StepMetrics.start("action")) {
+            JfrEvents.driverCommand("click", buttonText,
+                    () -> ((JavascriptExecutor) driver).executeScript("arguments[0].click();", element));
+        }
+    }
 
-            WebElement element = driver.findElement(locators.primary);
-            ((JavascriptExecutor) driver).executeScript("arguments[0].click();", element);
+    @Then("I should see {string}")
+    public void i_should_see(String expectedText) {
+        // Same check as before on the page source, repeated until it holds or the wait times out
+        Assert.assertTrue(waits.until(() -> waits.pageContains(expectedText)),
+                "Expected to see text: " + expectedText);
+    }
 
-        } catch (NoSuchElementException e) {
-            if (locators.fallback != null) {
-                WebElement element = driver.findElement(locators.fallback);
-                ((JavascriptExecutor) driver).executeScript("arguments[0].click();", element);
+    @Then("I wait for the page to settle")
+    public void i_wait_for_the_page_to_settle() {
+        waits.settle();
+        prefetchUpcomingLocators();
+    }
 
-            } else {
-                throw e;
-            }
+    @Then("I wait until I see {string}")
+    public void i_wait_until_i_see(String text) {
+        Assert.assertTrue(waits.until(() -> waits.visibleTextContains(text)),
+                "Text did not appear: " + text);
+        prefetchUpcomingLocators();
+    }
+
+    @Then("I wait until {string} is clickable")
+    public void i_wait_until_is_clickable(String elementDescription) throws Exception {
+        elementFor(elementDescription);
+    }
+
+    /**
+     * The actionable element for the description: primary and fallback are probed together
+     * under one deadline, see {@link LocatorProbe}.
+     */
+    private WebElement elementFor(String elementDescription) throws Exception {
+        String locator = getLocatorForElement(elementDescription);
+        if (locatorRegistry == null) {
+            LocatorProbe.Match match = probe.find(locator);
+            countMatch(match);
+            return match.element;
         }
 
+        // Every use teaches the registry which locators hold up on this page
+        String url = currentUrl();
+        try {
+            LocatorProbe.Match match = probe.find(locator);
+            countMatch(match);
+            LocatorRegistry.Outcome outcome = !match.unique ? LocatorRegistry.Outcome.NOT_FOUND
+                    : match.fallback ? LocatorRegistry.Outcome.FALLBACK : LocatorRegistry.Outcome.SUCCESS;
+            locatorRegistry.record(url, elementDescription, locator, outcome, match.millis);
+            return match.element;
+        } catch (NoSuchElementException e) {
+            locatorRegistry.record(url, elementDescription, locator, LocatorRegistry.Outcome.NOT_FOUND, 0);
+            throw e;
+        }
     }
 
-    @Then("I should see {string}")
-    public void i_should_see(String expectedText) {
-        String pageSource = driver.getPageSource();
-        Assert.assertTrue(pageSource.contains(expectedText),
-                "Expected to see text: " + expectedText);
+    private static void countMatch(LocatorProbe.Match match) {
+        if (match.fallback) StepMetrics.count("locator.fallback");
+        if (!match.unique) StepMetrics.count("locator.notUnique");
     }
 
     /**
-     * Helper method to get locator for an element and print it
+     * Resolves the locator for an element on the settled page: promoted registry locator,
+     * cache, local rules, prefetched answer, then the model.
      */
     private String getLocatorForElement(String elementDescription) throws Exception {
-        String dom = DomUtils.filterRelevantHtml(driver.getPageSource());
-        String locator = llmClient.askForLocator(dom, elementDescription);
-        System.out.println("LLM suggested locator for '" + elementDescription + "': " + locator);
-        return locator;
-    }
+        // Resolve against the page the previous action led to, not a half-rendered one
+        waits.settle();
+        String url = currentUrl();
 
-    private LocatorHolder parseLocator(String locatorResponse) {
-        if (locatorResponse == null || locatorResponse.trim().isEmpty()) {
-            throw new IllegalArgumentException("Locator response is null or empty");
+        // Proven locators need neither a snapshot nor the model while they keep matching
+        if (locatorRegistry != null) {
+            String promoted = locatorRegistry.promoted(url, elementDescription);
+            if (promoted != null) {
+                if (matchesLivePage(promoted)) {
+                    StepMetrics.count("registry.hit");
+                    LOG.info(() -> "Promoted locator for '" + elementDescription + "': " + promoted);
+                    return promoted;
+                }
+                locatorRegistry.record(url, elementDescription, promoted, LocatorRegistry.Outcome.NOT_FOUND, 0);
+            }
         }
 
-        locatorResponse = locatorResponse.trim();
+        DomSnapshot dom = currentSnapshot();
+        String fingerprint = dom.fingerprint();
 
-        try {
-            // 🔹 If LLM returned JSON format { "primary": "...", "fallback": "..." }
-            JSONObject obj = new JSONObject(locatorResponse);
-            By primary = parseSingleLocator(obj.getString("primary"));
-            By fallback = obj.has("fallback") && !obj.getString("fallback").isBlank()
-                    ? parseSingleLocator(obj.getString("fallback"))
-                    : null;
-            return new LocatorHolder(primary, fallback);
-        } catch (Exception e) {
-            // 🔹 Not JSON → treat it as a single locator string
-            return new LocatorHolder(parseSingleLocator(locatorResponse), null);
+        String cacheKey = null;
+        if (locatorCache != null) {
+            cacheKey = LocatorCache.keyFor(url, fingerprint, elementDescription);
+            String cached = locatorCache.get(cacheKey);
+            if (cached != null) {
+                if (matchesLivePage(cached)) {
+                    StepMetrics.count("cache.hit");
+                    LOG.info(() -> "Cached locator for '" + elementDescription + "': " + cached);
+                    return cached;
+                }
+                LOG.info(() -> "Evicting stale cached locator for '" + elementDescription + "': " + cached);
+                locatorCache.evict(cacheKey);
+            }
+            StepMetrics.count("cache.miss");
         }
+
+        // Unique deterministic matches never reach the model
+        String locator;
+        try (StepMetrics.Timer t = StepMetrics.start("local_resolve")) {
+            locator = LocalLocatorResolver.resolve(dom.document(), elementDescription);
+        }
+        if (locator != null && matchesLivePage(locator)) {
+            StepMetrics.count("local.hit");
+        } else {
+            String prefetched;
+            try (StepMetrics.Timer t = StepMetrics.start("prefetch_wait")) {
+                prefetched = prefetcher.take(elementDescription, fingerprint);
+            }
+            if (prefetched != null) {
+                StepMetrics.count("prefetch.hit");
+                LOG.info(() -> "Prefetched locator for '" + elementDescription + "': " + prefetched);
+                locator = llmClient.validateLocator(dom, elementDescription, prefetched);
+            } else {
+                String suggested = llmClient.askForLocator(dom, elementDescription);
+                LOG.info(() -> "LLM suggested locator for '" + elementDescription + "': " + suggested);
+                locator = suggested;
+            }
+        }
+        if (cacheKey != null && matchesLivePage(locator)) {
+            locatorCache.put(cacheKey, locator);
+        }
+        return locator;
     }
 
-    private By parseSingleLocator(String locator) {
-        if (locator == null || locator.trim().isEmpty()) {
-            throw new IllegalArgumentException("Locator string is null or empty");
+    /**
+     * Starts locator resolution for the element steps that follow the current one,
+     * up to the first step that is not a click or an entry (the page is likely to
+     * change there) and asks the model for all of them in one batch. Each step later
+     * takes its result if the page is unchanged.
+     */
+    private void prefetchUpcomingLocators() {
+        Set<String> descriptions = new LinkedHashSet<>();
+        for (String step : ScenarioLookahead.upcomingSteps()) {
+            String description = elementDescriptionOf(step);
+            if (description == null) break;
+            descriptions.add(description);
         }
+        if (descriptions.isEmpty()) return;
 
-        locator = locator.trim();
+        String url = currentUrl();
+        DomSnapshot dom = currentSnapshot();
+        String fingerprint = dom.fingerprint();
+        prefetcher.prefetch(dom, descriptions, (page, missing) -> {
+            // Cached and locally resolvable elements are cheap at step time
+            List<String> ask = new ArrayList<>();
+            for (String description : missing) {
+                if (locatorCache != null && locatorCache.contains(LocatorCache.keyFor(url, fingerprint, description))) continue;
+                if (locatorRegistry != null && locatorRegistry.promoted(url, description) != null) continue;
+                if (LocalLocatorResolver.resolve(page.document(), description) != null) continue;
+                ask.add(description);
+            }
+            return llmClient.askForLocatorsAsync(page, ask);
+        });
+    }
 
-        // Handle Selenium-style prefixes
-        if (locator.toLowerCase().startsWith("id=")) {
-            return By.id(locator.substring(3).trim());
-        }
-        if (locator.toLowerCase().startsWith("name=")) {
-            return By.name(locator.substring(5).trim());
+    /**
+     * Filtered snapshot of the live page; rebuilt only when the page changed.
+     * With in-browser extraction the filter runs in the page and page source is only a fallback;
+     * in incremental mode only the changes since the previous step are transferred.
+     */
+    private DomSnapshot currentSnapshot() {
+        if (journal != null) {
+            DomSnapshot patched;
+            try (StepMetrics.Timer t = StepMetrics.start("page_source")) {
+                patched = journal.pull(driver);
+            }
+            if (patched != null) {
+                snapshot = patched;
+                return snapshot;
+            }
+        } else if (BrowserDomExtractor.isEnabled()) {
+            String extraction;
+            try (StepMetrics.Timer t = StepMetrics.start("page_source")) {
+                extraction = BrowserDomExtractor.extract(driver);
+            }
+            if (extraction != null) {
+                if (snapshot == null || !snapshot.isOf(extraction)) {
+                    try (StepMetrics.Timer t = StepMetrics.start("dom_filter")) {
+                        snapshot = DomUtils.snapshotOfExtraction(extraction);
+                    }
+                }
+                return snapshot;
+            }
         }
-        if (locator.toLowerCase().startsWith("css=")) {
-            return By.cssSelector(locator.substring(4).trim());
+        String pageSource;
+        try (StepMetrics.Timer t = StepMetrics.start("page_source")) {
+            pageSource = JfrEvents.driverCommand("getPageSource", null, driver::getPageSource);
         }
-        if (locator.toLowerCase().startsWith("xpath=")) {
-            return By.xpath(locator.substring(6).trim());
+        if (snapshot == null || !snapshot.isOf(pageSource)) {
+            try (StepMetrics.Timer t = StepMetrics.start("dom_filter")) {
+                snapshot = DomUtils.snapshot(pageSource);
+            }
         }
+        return snapshot;
+    }
 
-        // Auto-detect XPath
-        if (locator.startsWith("/") || locator.startsWith("(")) {
-            return By.xpath(locator);
-        }
+    private String currentUrl() {
+        return JfrEvents.driverCommand("getCurrentUrl", null, driver::getCurrentUrl);
+    }
 
-        // Default to CSS selector
-        return By.cssSelector(locator);
+    /** The element description a step will resolve, or null for non-element steps. */
+    private static String elementDescriptionOf(String stepText) {
+        Matcher click = CLICK_STEP.matcher(stepText);
+        if (click.matches()) return click.group(1);
+        Matcher enter = ENTER_STEP.matcher(stepText);
+        if (enter.matches()) return enter.group(1);
+        if (ENTER_USERNAME_STEP.matcher(stepText).matches()) return "username field";
+        if (ENTER_PASSWORD_STEP.matcher(stepText).matches()) return "password field";
+        return null;
+    }
+
+    /**
+     * True if the primary or fallback locator matches exactly one element on the live page,
+     * checked in one round trip without waiting.
+     */
+    private boolean matchesLivePage(String locatorResponse) {
+        try {
+            return probe.matchesUniquely(locatorResponse);
+        } catch (Exception e) {
+            return false;
+        }
     }
 
+    /**
+     * The value is in milliseconds, as the features have always passed it ({2000}).
+     * Waits for the page to settle, using the value only as an upper bound;
+     * -Dfonio.wait.fixedSleeps=true restores the fixed sleep.
+     */
     @Then("WaitFor \\{{int}} seconds")
     public void waitforSeconds(int seconds  ) {
-        try{
-            Thread.sleep(seconds);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        if (PageWaits.fixedSleeps()) {
+            try{
+                Thread.sleep(seconds);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            waits.settle(seconds);
         }
+        prefetchUpcomingLocators();
     }
 
     @When("I enter {string} in {string}")
     public void iEnterIn(String arg0, String arg1) throws Exception {
-        String locator = getLocatorForElement(arg1);
-        LocatorHolder locators = parseLocator(locator);
-        try {
-            driver.findElement(locators.primary).sendKeys(arg0);
-        } catch (NoSuchElementException e) {
-            if (locators.fallback != null) {
-                driver.findElement(locators.fallback).sendKeys(arg0);
-            } else {
-                throw e;
-            }
+        WebElement element = elementFor(arg1);
+        try (StepMetrics.Timer t = StepMetrics.start("action")) {
+            JfrEvents.driverCommand("sendKeys", arg1, () -> element.sendKeys(arg0));
         }
     }
 }
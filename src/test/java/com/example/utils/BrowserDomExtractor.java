@@ -0,0 +1,74 @@
+package com.example.utils;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Filters the page inside the browser instead of transferring getPageSource().
+ * - Runs the bundled js/extract-dom.js through {@link JavascriptExecutor}.
+ * - Only a compact JsonML tree of visible, actionable elements crosses the WebDriver wire.
+ * - Visibility comes from computed style, and open shadow roots are included.
+ * Enabled with -Dfonio.dom.extraction=browser; {@link DomUtils#snapshotOfExtraction} builds the snapshot.
+ * -Dfonio.dom.extraction=incremental additionally keeps a mutation journal in the page, see {@link DomJournal}.
+ */
+public class BrowserDomExtractor {
+
+    private static final Trace LOG = Trace.of(BrowserDomExtractor.class);
+
+    // ---------- Config ----------
+    private static final String MODE = System.getProperty("fonio.dom.extraction", "source");
+    private static final String SCRIPT_RESOURCE = "/js/extract-dom.js";
+
+    private static final String SCRIPT = loadScript(SCRIPT_RESOURCE);
+
+    public static boolean isEnabled() {
+        return "browser".equalsIgnoreCase(MODE) || isIncremental();
+    }
+
+    public static boolean isIncremental() {
+        return "incremental".equalsIgnoreCase(MODE);
+    }
+
+    /** Returns the JsonML extraction of the live page, or null if the script failed. */
+    public static String extract(WebDriver driver) {
+        try {
+            Object result = JfrEvents.driverCommand("extract dom", null,
+                    () -> ((JavascriptExecutor) driver).executeScript(SCRIPT));
+            return result instanceof String ? (String) result : null;
+        } catch (WebDriverException e) {
+            LOG.warn(() -> "In-browser DOM extraction failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Pulls the page's changes since the journal epoch as a JSON result (full, unchanged or patches),
+     * or null if the script failed. A null or stale epoch installs a new journal.
+     */
+    public static String pullJournal(WebDriver driver, String epoch, boolean forceFull) {
+        try {
+            Object result = JfrEvents.driverCommand("pull journal", epoch,
+                    () -> ((JavascriptExecutor) driver).executeScript(SCRIPT, "journal", epoch, forceFull));
+            return result instanceof String ? (String) result : null;
+        } catch (WebDriverException e) {
+            LOG.warn(() -> "DOM journal pull failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Source of a bundled script resource. */
+    static String loadScript(String resource) {
+        try (InputStream in = BrowserDomExtractor.class.getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalStateException("Missing resource " + resource);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.utils;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WindowType;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps N Chrome instances warm and hands them out per scenario.
+ * - Browsers are reset (windows, cookies, storage of every visited origin) instead of quit/relaunched.
+ * - Every checkout and return is health-checked; a browser that fails or hangs is recycled.
+ * - Startup cost is paid once per pooled instance, not once per scenario.
+ */
+public class BrowserPool {
+
+    private static final Trace LOG = Trace.of(BrowserPool.class);
+
+    // ---------- Config ----------
+    private static final int POOL_SIZE = Integer.getInteger("fonio.browser.poolSize", Integer.getInteger("fonio.threads", 1));
+    private static final boolean HEADLESS = Boolean.parseBoolean(System.getProperty("fonio.headless", "true"));
+    private static final long HEALTH_TIMEOUT_MS = Long.getLong("fonio.browser.healthTimeoutMs", 5_000L);
+
+    private static final BrowserPool SHARED = new BrowserPool(POOL_SIZE);
+
+    private final int size;
+    private final BlockingDeque<WebDriver> idle = new LinkedBlockingDeque<>();
+    private final Set<WebDriver> all = ConcurrentHashMap.newKeySet();
+    private final ExecutorService watchdog = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "fonio-browser-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean warmed;
+
+    public BrowserPool(int size) {
+        this.size = Math.max(1, size);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    public static BrowserPool shared() {
+        return SHARED;
+    }
+
+    // ---------- Public API ----------
+
+    /** Returns a healthy, clean browser; launches one if the pool is empty. */
+    public WebDriver checkout() {
+        warmUp();
+        WebDriver driver;
+        while ((driver = idle.pollFirst()) != null) {
+            if (isHealthy(driver)) {
+                return driver;
+            }
+            LOG.info(() -> "Recycling unhealthy pooled browser");
+            discard(driver);
+        }
+        return launch();
+    }
+
+    /** Resets the browser and puts it back; broken or surplus browsers are quit. */
+    public void release(WebDriver driver) {
+        if (driver == null) return;
+        if (idle.size() < size && reset(driver)) {
+            idle.offerFirst(driver);
+        } else {
+            discard(driver);
+        }
+    }
+
+    /** Quits every browser synchronously; runs from a shutdown hook. */
+    public void shutdown() {
+        idle.clear();
+        for (WebDriver driver : new ArrayList<>(all)) {
+            all.remove(driver);
+            quitQuietly(driver);
+        }
+    }
+
+    // ---------- Lifecycle ----------
+
+    /** Launches the pool's browsers concurrently on first use. */
+    private void warmUp() {
+        if (warmed) return;
+        synchronized (this) {
+            if (warmed) return;
+            List<Future<WebDriver>> launches = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                launches.add(watchdog.submit(this::launch));
+            }
+            for (Future<WebDriver> launch : launches) {
+                try {
+                    idle.offerLast(launch.get());
+                } catch (Exception e) {
+                    LOG.warn(() -> "Failed to pre-warm browser: " + e.getMessage());
+                }
+            }
+            warmed = true;
+            LOG.info(() -> "Browser pool warmed with " + idle.size() + " instance(s)");
+        }
+    }
+
+    private WebDriver launch() {
+        ChromeOptions options = new ChromeOptions();
+        if (HEADLESS) {
+            options.addArguments("--headless=new", "--window-size=1920,1080");
+        }
+        options.addArguments("--disable-dev-shm-usage", "--disable-extensions");
+        ChromeDriver driver = new ChromeDriver(options);
+        installTracker(driver);
+        all.add(driver);
+        return driver;
+    }
+
+    /** Counts requests from the start of every document of the current tab, before page scripts run; see PageWaits. */
+    private static void installTracker(ChromeDriver driver) {
+        driver.executeCdpCommand("Page.addScriptToEvaluateOnNewDocument",
+                Collections.singletonMap("source", PageWaits.trackerScript()));
+    }
+
+    private boolean isHealthy(WebDriver driver) {
+        return withTimeout(() -> {
+            Object state = ((JavascriptExecutor) driver).executeScript("return document.readyState");
+            return state != null;
+        });
+    }
+
+    /**
+     * Clears cookies and storage and leaves one blank tab.
+     * - Chrome: local storage, IndexedDB, caches and service workers are cleared through CDP for every
+     *   origin in the history of the open windows. The windows are replaced by a new tab, which
+     *   starts with empty session storage. Cookies are cleared browser-wide.
+     * - Other drivers: extra windows are closed and the current origin's storage and the cookies cleared.
+     */
+    private boolean reset(WebDriver driver) {
+        return withTimeout(() -> {
+            List<String> handles = new ArrayList<>(driver.getWindowHandles());
+            if (handles.isEmpty()) return false;
+            if (driver instanceof ChromeDriver) {
+                resetChrome((ChromeDriver) driver, handles);
+                return true;
+            }
+            for (String handle : handles.subList(1, handles.size())) {
+                driver.switchTo().window(handle).close();
+            }
+            driver.switchTo().window(handles.get(0));
+            try {
+                ((JavascriptExecutor) driver).executeScript(
+                        "try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}");
+            } catch (Exception e) {
+                // about:blank and some error pages have no storage
+            }
+            driver.manage().deleteAllCookies();
+            driver.get("about:blank");
+            return true;
+        });
+    }
+
+    private static void resetChrome(ChromeDriver driver, List<String> handles) {
+        Set<String> origins = new LinkedHashSet<>();
+        for (String handle : handles) {
+            driver.switchTo().window(handle);
+            origins.addAll(visitedOrigins(driver));
+        }
+        driver.switchTo().newWindow(WindowType.TAB);
+        String fresh = driver.getWindowHandle();
+        installTracker(driver);
+        for (String handle : handles) {
+            driver.switchTo().window(handle).close();
+        }
+        driver.switchTo().window(fresh);
+        for (String origin : origins) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("origin", origin);
+            params.put("storageTypes", "all");
+            driver.executeCdpCommand("Storage.clearDataForOrigin", params);
+        }
+        driver.executeCdpCommand("Network.clearBrowserCookies", Collections.emptyMap());
+    }
+
+    /** http(s) origins in the current tab's navigation history. */
+    private static Set<String> visitedOrigins(ChromeDriver driver) {
+        Set<String> origins = new LinkedHashSet<>();
+        Object entries = driver.executeCdpCommand("Page.getNavigationHistory", Collections.emptyMap()).get("entries");
+        if (!(entries instanceof List)) return origins;
+        for (Object entry : (List<?>) entries) {
+            if (!(entry instanceof Map)) continue;
+            try {
+                URI url = URI.create(String.valueOf(((Map<?, ?>) entry).get("url")));
+                String scheme = url.getScheme();
+                if (("http".equals(scheme) || "https".equals(scheme)) && url.getHost() != null) {
+                    origins.add(scheme + "://" + url.getHost() + (url.getPort() >= 0 ? ":" + url.getPort() : ""));
+                }
+            } catch (IllegalArgumentException e) {
+                // Not a URL we can clear storage for
+            }
+        }
+        return origins;
+    }
+
+    /** Quits in the background so a hung browser cannot block the caller. */
+    private void discard(WebDriver driver) {
+        idle.remove(driver);
+        if (!all.remove(driver)) return;
+        watchdog.submit(() -> quitQuietly(driver));
+    }
+
+    private static void quitQuietly(WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (Exception e) {
+            LOG.warn(() -> "Failed to quit browser: " + e.getMessage());
+        }
+    }
+
+    private boolean withTimeout(Callable<Boolean> check) {
+        Future<Boolean> result = watchdog.submit(check);
+        try {
+            return Boolean.TRUE.equals(result.get(HEALTH_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            LOG.warn(() -> "Browser did not respond within " + HEALTH_TIMEOUT_MS + " ms");
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.utils;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+
+import java.util.*;
+
+/**
+ * Builds the LLM snippet from the best-matching actionable elements instead of a DOM region.
+ * - Every clickable element is scored against the description: visible text, identifying
+ *   attributes, associated label, and tag/role hints from the description.
+ * - The top k are emitted in document order with their nearest ancestors as minimal context,
+ *   until the token budget is spent.
+ * Disable with -Dfonio.prompt.ranking=false to send {@link DomUtils#extractSnippetByDescription} instead.
+ */
+public class CandidateRanker {
+
+    private static final Trace LOG = Trace.of(CandidateRanker.class);
+
+    // ---------- Config ----------
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("fonio.prompt.ranking", "true"));
+    private static final int TOP_K = Integer.getInteger("fonio.prompt.topK", 8);
+    private static final int TOKEN_BUDGET = Integer.getInteger("fonio.prompt.tokenBudget", 1_200);
+    private static final int CONTEXT_DEPTH = 2;       // ancestors kept around each candidate
+    private static final int MAX_TEXT_CHARS = 120;    // visible text kept per candidate
+    private static final int CHARS_PER_TOKEN = 4;     // rough estimate for English HTML
+
+    // Scores
+    private static final double EXACT_ATTRIBUTE = 10;
+    private static final double EXACT_TEXT = 8;
+    private static final double WHOLE_LABEL_IN_TEXT = 5;
+    private static final double TOKEN_IN_TEXT = 2;
+    private static final double TOKEN_IN_ATTRIBUTE = 1.5;
+    private static final double KIND_HINT = 2;
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // ---------- Public API ----------
+
+    /** Ranked, budgeted snippet for the description; empty only for an empty page. */
+    public static String rankedSnippet(DomSnapshot dom, String description) {
+        return String.join("\n", rankedFragments(dom, description));
+    }
+
+    /**
+     * The fragments of {@link #rankedSnippet} in document order, one per kept candidate.
+     * If no fragment fits the budget, the single element is the best candidate without its ancestors;
+     * without any candidate it is the description-region snippet. Either is cut to the budget.
+     */
+    public static List<String> rankedFragments(DomSnapshot dom, String description) {
+        if (dom == null || dom.html().isEmpty()) return Collections.emptyList();
+        Document doc = dom.document();
+        if (doc.body() == null) return Collections.emptyList();
+
+        String label = LocalLocatorResolver.targetLabel(description);
+        String[] tokens = label.split(" ");
+        String lowerDescription = LocalLocatorResolver.normalize(description);
+        Map<Element, String> labels = associatedLabels(doc);
+
+        List<Element> elements = new ArrayList<>();
+        List<Double> scores = new ArrayList<>();
+        for (Element el : doc.body().getAllElements()) {
+            if (!LocalLocatorResolver.isClickable(el) || "hidden".equalsIgnoreCase(el.attr("type"))) continue;
+            elements.add(el);
+            scores.add(score(el, label, tokens, labels.get(el), lowerDescription));
+        }
+
+        // Best first, ties in document order; without any positive score keep document order
+        Integer[] order = new Integer[elements.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(scores.get(b), scores.get(a)));
+
+        int budgetChars = TOKEN_BUDGET * CHARS_PER_TOKEN;
+        int used = 0;
+        List<Integer> picked = new ArrayList<>();
+        Map<Integer, String> fragments = new HashMap<>();
+        for (Integer i : order) {
+            if (picked.size() >= TOP_K) break;
+            if (!picked.isEmpty() && scores.get(i) <= 0 && scores.get(picked.get(0)) > 0) break;
+            String fragment = fragment(elements.get(i), labels.get(elements.get(i)), CONTEXT_DEPTH);
+            if (used + fragment.length() > budgetChars) continue;
+            used += fragment.length() + 1;
+            picked.add(i);
+            fragments.put(i, fragment);
+        }
+        Collections.sort(picked);
+
+        List<String> kept = new ArrayList<>(picked.size());
+        for (Integer i : picked) {
+            kept.add(fragments.get(i));
+        }
+        LOG.debug(() -> "Ranked " + elements.size() + " candidates for '" + description + "', kept "
+                + picked.size() + " in ~" + estimateTokens(String.join("\n", kept)) + " tokens");
+        if (!kept.isEmpty()) return kept;
+
+        String fallback = order.length > 0
+                ? fragment(elements.get(order[0]), labels.get(elements.get(order[0])), 0)
+                : DomUtils.extractSnippetByDescription(dom, description);
+        return Collections.singletonList(fallback.length() > budgetChars ? fallback.substring(0, budgetChars) : fallback);
+    }
+
+    /** True if the element's text, label or identifying attributes relate to the description at all. */
+    static boolean isRelevant(Element el, String description) {
+        String label = LocalLocatorResolver.targetLabel(description);
+        Document doc = el.ownerDocument();
+        String labelText = doc == null ? null : associatedLabels(doc).get(el);
+        return score(el, label, label.split(" "), labelText, LocalLocatorResolver.normalize(description)) > 0;
+    }
+
+    static int estimateTokens(CharSequence text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    // ---------- Scoring ----------
+
+    private static double score(Element el, String label, String[] tokens, String labelText, String description) {
+        double score = textScore(LocalLocatorResolver.normalize(el.wholeText()), label, tokens);
+        if (labelText != null) {
+            score += textScore(LocalLocatorResolver.normalize(labelText), label, tokens);
+        }
+
+        double attributes = 0;
+        for (String attr : LocalLocatorResolver.MATCH_ATTRS) {
+            if (!el.hasAttr(attr)) continue;
+            String value = LocalLocatorResolver.normalize(el.attr(attr));
+            if (value.equals(label)) {
+                attributes = Math.max(attributes, EXACT_ATTRIBUTE);
+                continue;
+            }
+            double partial = 0;
+            for (String token : tokens) {
+                if (token.length() > 1 && value.contains(token)) partial += TOKEN_IN_ATTRIBUTE;
+            }
+            attributes = Math.max(attributes, partial);
+        }
+        score += attributes;
+
+        if (score > 0) score += kindHint(el, description);
+        return score;
+    }
+
+    private static double textScore(String text, String label, String[] tokens) {
+        if (text.isEmpty()) return 0;
+        if (text.equals(label)) return EXACT_TEXT;
+        String padded = " " + text + " ";
+        if (padded.contains(" " + label + " ")) return WHOLE_LABEL_IN_TEXT;
+        double score = 0;
+        for (String token : tokens) {
+            if (token.length() > 1 && padded.contains(" " + token + " ")) score += TOKEN_IN_TEXT;
+        }
+        return score;
+    }
+
+    /** Rewards the element kind named in the description ("... button", "... link", "... field"). */
+    private static double kindHint(Element el, String description) {
+        String tag = el.tagName();
+        String role = el.attr("role").toLowerCase(Locale.ROOT);
+        String type = el.attr("type").toLowerCase(Locale.ROOT);
+        String padded = " " + description + " ";
+        if (padded.contains(" button ")) {
+            return "button".equals(tag) || "button".equals(role) || "submit".equals(type) || "button".equals(type) ? KIND_HINT : 0;
+        }
+        if (padded.contains(" link ")) {
+            return "a".equals(tag) || "link".equals(role) ? KIND_HINT : 0;
+        }
+        if (padded.contains(" password ")) {
+            return "password".equals(type) ? KIND_HINT : 0;
+        }
+        if (padded.contains(" field ") || padded.contains(" box ") || padded.contains(" input ")) {
+            boolean field = "input".equals(tag) || "textarea".equals(tag) || "select".equals(tag) || "textbox".equals(role);
+            return field ? KIND_HINT : 0;
+        }
+        return 0;
+    }
+
+    /** Text of the label for each labelled form control (for= or wrapping label). */
+    private static Map<Element, String> associatedLabels(Document doc) {
+        Map<Element, String> labels = new IdentityHashMap<>();
+        for (Element label : doc.getElementsByTag("label")) {
+            Element control = label.hasAttr("for")
+                    ? doc.getElementById(label.attr("for"))
+                    : label.selectFirst("input, select, textarea");
+            if (control != null) {
+                labels.merge(control, label.text(), (a, b) -> a + " " + b);
+            }
+        }
+        return labels;
+    }
+
+    // ---------- Packing ----------
+
+    /** The element with shortened text, wrapped in up to depth nearest ancestors' start/end tags. */
+    private static String fragment(Element el, String labelText, int depth) {
+        StringBuilder inner = new StringBuilder();
+        if (labelText != null && !labelText.isEmpty()) {
+            inner.append("<label>").append(shorten(labelText)).append("</label>");
+        }
+        String text = shorten(el.text());
+        inner.append(startTag(el)).append(text);
+        if (!el.tag().isSelfClosing()) {
+            inner.append("</").append(el.tagName()).append('>');
+        }
+
+        String html = inner.toString();
+        Element ancestor = el.parent();
+        for (int i = 0; i < depth && ancestor != null && !"body".equals(ancestor.tagName()); i++) {
+            html = startTag(ancestor) + html + "</" + ancestor.tagName() + ">";
+            ancestor = ancestor.parent();
+        }
+        return html;
+    }
+
+    private static String startTag(Element el) {
+        return "<" + el.tagName() + el.attributes().html() + ">";
+    }
+
+    private static String shorten(String text) {
+        String t = text.trim();
+        return Entities.escape(t.length() > MAX_TEXT_CHARS ? t.substring(0, MAX_TEXT_CHARS) + "..." : t);
+    }
+}
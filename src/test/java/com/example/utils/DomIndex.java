@@ -0,0 +1,202 @@
+package com.example.utils;
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+
+import java.util.*;
+
+/**
+ * Inverted index over a parsed DOM, built in one traversal.
+ * - Own-text words and identifying attribute words (id, name, placeholder, aria-label,
+ *   title, data-*) map to the elements carrying them; tags map to their elements.
+ * - Phrase lookups probe the rarest word and verify the phrase on those elements only.
+ * - Words are runs of letters and digits, lowercased ("j_username" -> "j", "username").
+ * The index describes the tree at build time; it is not updated if the tree changes.
+ */
+public class DomIndex {
+
+    private static final Set<String> INDEXED_ATTRS = new HashSet<>(Arrays.asList("id", "name", "placeholder", "aria-label", "title"));
+    /** Pseudo attribute name that looks up the values of all data-* attributes together. */
+    public static final String DATA_ATTRS = "data-*";
+
+    private final Map<String, List<Element>> byTag = new HashMap<>();
+    private final Map<String, List<Element>> byOwnTextWord = new HashMap<>();
+    private final Map<String, List<Element>> byOwnText = new HashMap<>();
+    private final Map<String, Map<String, List<Element>>> byAttrWord = new HashMap<>();
+
+    // Elements with own text, in document order, and that text lowercased
+    private final List<Element> textElements = new ArrayList<>();
+    private final List<String> ownTexts = new ArrayList<>();
+
+    public DomIndex(Document doc) {
+        for (Element el : doc.getAllElements()) {
+            add(byTag, el.normalName(), el);
+
+            String own = ownText(el);
+            if (own != null) {
+                textElements.add(el);
+                ownTexts.add(collapseWhitespace(own).toLowerCase(Locale.ROOT));
+                String normalized = normalize(own);
+                if (!normalized.isEmpty()) {
+                    add(byOwnText, normalized, el);
+                    addWords(byOwnTextWord, normalized, el);
+                }
+            }
+
+            if (el.attributesSize() == 0) continue;
+            for (Attribute a : el.attributes()) {
+                String key = a.getKey();
+                if (INDEXED_ATTRS.contains(key)) {
+                    indexAttr(key, a.getValue(), el);
+                } else if (key.startsWith("data-")) {
+                    indexAttr(DATA_ATTRS, a.getValue(), el);
+                }
+            }
+        }
+    }
+
+    // ---------- Lookups ----------
+
+    /** Elements with the tag, in document order. */
+    public List<Element> byTag(String tag) {
+        return byTag.getOrDefault(tag, Collections.emptyList());
+    }
+
+    /** Elements whose own text contains the phrase as whole words. */
+    public List<Element> ownTextContaining(String phrase) {
+        String normalized = normalize(phrase);
+        List<Element> out = new ArrayList<>();
+        for (Element el : rarest(byOwnTextWord, normalized)) {
+            if (containsPhrase(normalize(el.ownText()), normalized)) out.add(el);
+        }
+        return out;
+    }
+
+    /** Elements whose own text is exactly the phrase (case and whitespace ignored). */
+    public List<Element> ownTextEquals(String phrase) {
+        return byOwnText.getOrDefault(normalize(phrase), Collections.emptyList());
+    }
+
+    /** Elements whose attribute value contains the phrase as whole words. */
+    public List<Element> attrContaining(String attr, String phrase) {
+        String normalized = normalize(phrase);
+        Map<String, List<Element>> words = byAttrWord.getOrDefault(attr, Collections.emptyMap());
+        List<Element> out = new ArrayList<>();
+        for (Element el : rarest(words, normalized)) {
+            if (attrContainsPhrase(el, attr, normalized)) out.add(el);
+        }
+        return out;
+    }
+
+    /**
+     * Elements whose own text contains the needle as a substring, case-insensitive,
+     * in document order. Same hits as {@code *:matchesOwn((?i)<quoted needle>)}.
+     */
+    public Elements ownTextSubstring(String needle) {
+        String lower = needle.toLowerCase(Locale.ROOT);
+        Elements out = new Elements();
+        for (int i = 0; i < textElements.size(); i++) {
+            if (ownTexts.get(i).contains(lower)) out.add(textElements.get(i));
+        }
+        return out;
+    }
+
+    // ---------- Helpers ----------
+
+    /** Lowercased words joined by single spaces. */
+    static String normalize(String text) {
+        if (text == null) return "";
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean gap = false;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isLetterOrDigit(ch)) {
+                if (gap && sb.length() > 0) sb.append(' ');
+                sb.append(Character.toLowerCase(ch));
+                gap = false;
+            } else {
+                gap = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean attrContainsPhrase(Element el, String attr, String normalizedPhrase) {
+        if (!DATA_ATTRS.equals(attr)) return containsPhrase(normalize(el.attr(attr)), normalizedPhrase);
+        for (Attribute a : el.attributes()) {
+            if (a.getKey().startsWith("data-") && containsPhrase(normalize(a.getValue()), normalizedPhrase)) return true;
+        }
+        return false;
+    }
+
+    private static boolean containsPhrase(String normalizedText, String normalizedPhrase) {
+        return (" " + normalizedText + " ").contains(" " + normalizedPhrase + " ");
+    }
+
+    /** Posting list of the phrase's least frequent word; empty if any word is missing. */
+    private static List<Element> rarest(Map<String, List<Element>> index, String normalizedPhrase) {
+        if (normalizedPhrase.isEmpty()) return Collections.emptyList();
+        List<Element> best = null;
+        for (String word : normalizedPhrase.split(" ")) {
+            List<Element> postings = index.get(word);
+            if (postings == null) return Collections.emptyList();
+            if (best == null || postings.size() < best.size()) best = postings;
+        }
+        return best;
+    }
+
+    private void indexAttr(String attr, String value, Element el) {
+        String normalized = normalize(value);
+        if (normalized.isEmpty()) return;
+        addWords(byAttrWord.computeIfAbsent(attr, k -> new HashMap<>()), normalized, el);
+    }
+
+    /** Adds the element once per distinct word; repeated words and data-* values share a posting. */
+    private static void addWords(Map<String, List<Element>> index, String normalized, Element el) {
+        int start = 0;
+        while (start < normalized.length()) {
+            int end = normalized.indexOf(' ', start);
+            if (end < 0) end = normalized.length();
+            List<Element> postings = index.computeIfAbsent(normalized.substring(start, end), k -> new ArrayList<>());
+            if (postings.isEmpty() || postings.get(postings.size() - 1) != el) postings.add(el);
+            start = end + 1;
+        }
+    }
+
+    /** Trims and collapses whitespace runs to one space, as {@link Element#ownText()} does. */
+    private static String collapseWhitespace(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isWhitespace(ch) || ch == 160) {
+                space = true;
+            } else {
+                if (space && sb.length() > 0) sb.append(' ');
+                sb.append(ch);
+                space = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Raw text of the element's own text nodes, or null when it has none. */
+    private static String ownText(Element el) {
+        StringBuilder sb = null;
+        for (int i = 0; i < el.childNodeSize(); i++) {
+            Node child = el.childNode(i);
+            if (!(child instanceof TextNode)) continue;
+            if (sb == null) sb = new StringBuilder();
+            sb.append(((TextNode) child).getWholeText());
+        }
+        return sb == null || sb.toString().trim().isEmpty() ? null : sb.toString();
+    }
+
+    private static void add(Map<String, List<Element>> index, String key, Element el) {
+        index.computeIfAbsent(key, k -> new ArrayList<>()).add(el);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.utils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.openqa.selenium.WebDriver;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the filtered snapshot of the current page in step with the browser through the
+ * MutationObserver journal of js/extract-dom.js.
+ * - The first pull after a page load transfers the full extraction; later pulls only the
+ *   re-extracted subtrees around what changed.
+ * - An unchanged page returns the same {@link DomSnapshot}.
+ * - Patches go to a private working tree; every published snapshot wraps its own copy of it,
+ *   so a snapshot a caller still holds never changes under it.
+ * One instance per scenario; enabled with -Dfonio.dom.extraction=incremental.
+ */
+public class DomJournal {
+
+    private static final Trace LOG = Trace.of(DomJournal.class);
+
+    private String epoch;
+    private Document document;   // working tree, never published
+    private DomSnapshot snapshot;
+    private int version;
+
+    // Journal keys of the elements in document, both ways
+    private final Map<Integer, Element> byKey = new HashMap<>();
+    private final Map<Element, Integer> keyOf = new IdentityHashMap<>();
+
+    /** Returns the up-to-date snapshot, or null if the page could not be read through the journal. */
+    public DomSnapshot pull(WebDriver driver) {
+        String result = BrowserDomExtractor.pullJournal(driver, epoch, false);
+        if (result == null) return null;
+        try {
+            if (apply(new JSONObject(result))) return snapshot;
+            // A patch referred to an element we do not hold: start over from a full extraction
+            LOG.debug(() -> "DOM journal out of step, requesting full extraction");
+            result = BrowserDomExtractor.pullJournal(driver, epoch, true);
+            if (result != null && apply(new JSONObject(result))) return snapshot;
+        } catch (Exception e) {
+            LOG.warn(() -> "Error applying DOM journal: " + e.getMessage());
+        }
+        reset();
+        return null;
+    }
+
+    /** Drops the tracked page; the next pull starts with a full extraction. */
+    public void reset() {
+        epoch = null;
+        document = null;
+        snapshot = null;
+        byKey.clear();
+        keyOf.clear();
+    }
+
+    private boolean apply(JSONObject result) {
+        String resultEpoch = result.getString("epoch");
+        if (result.has("full")) {
+            reset();
+            document = Document.createShell("");
+            DomUtils.appendJsonMl(document.body(), result.getJSONArray("full"), byKey);
+            byKey.forEach((key, el) -> keyOf.put(el, key));
+            epoch = resultEpoch;
+            publish();
+            LOG.debug(() -> "DOM journal: full extraction, filtered length: " + snapshot.html().length());
+            return true;
+        }
+        if (!resultEpoch.equals(epoch) || document == null) return false;
+        if (result.optBoolean("unchanged")) return true;
+
+        JSONArray patches = result.getJSONArray("patches");
+        for (int i = 0; i < patches.length(); i++) {
+            JSONObject patch = patches.getJSONObject(i);
+            if (!replace(patch.getInt("k"), patch.getJSONArray("items"))) return false;
+        }
+        publish();
+        LOG.debug(() -> "DOM journal: applied " + patches.length() + " patches");
+        return true;
+    }
+
+    /** Replaces the keyed element with the re-extracted JsonML items. */
+    private boolean replace(int key, JSONArray items) {
+        Element old = byKey.get(key);
+        if (old == null || old.parent() == null) return false;
+        for (Element el : old.getAllElements()) {
+            Integer k = keyOf.remove(el);
+            if (k != null) byKey.remove(k);
+        }
+
+        Map<Integer, Element> added = new HashMap<>();
+        for (int i = 0; i < items.length(); i++) {
+            Object item = items.get(i);
+            if (item instanceof JSONArray) {
+                JSONArray node = (JSONArray) item;
+                Element el = new Element(node.getString(0));
+                DomUtils.appendJsonMl(el, node, added);
+                old.before(el);
+            } else {
+                old.before(new TextNode(item.toString()));
+            }
+        }
+        old.remove();
+        added.forEach((k, el) -> {
+            byKey.put(k, el);
+            keyOf.put(el, k);
+        });
+        return true;
+    }
+
+    private void publish() {
+        version++;
+        snapshot = DomUtils.filteredSnapshot(epoch + "#" + version, document.clone());
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.utils;
+
+import org.jsoup.helper.W3CDom;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
+
+/**
+ * One page state, parsed and filtered once by {@link DomUtils#snapshot(String)}.
+ * - document(): the filtered jsoup tree; callers read it and never modify it.
+ * - html(): its compacted serialized form, as sent to the LLM.
+ * - The structural fingerprint, the {@link DomIndex} and the W3C copy for XPath are built on first use.
+ */
+public final class DomSnapshot {
+
+    private final String source;
+    private final Document document;
+    private final String html;
+
+    private String fingerprint;
+    private DomIndex index;
+    private org.w3c.dom.Document w3c;
+
+    DomSnapshot(String source, Document document, String html) {
+        this.source = source;
+        this.document = document;
+        this.html = html;
+    }
+
+    public Document document() {
+        return document;
+    }
+
+    public String html() {
+        return html;
+    }
+
+    /** True if this snapshot was taken from exactly this page source. */
+    public boolean isOf(String pageSource) {
+        return source.equals(pageSource);
+    }
+
+    /** See {@link LocatorCache#fingerprint(Document)}. */
+    public synchronized String fingerprint() {
+        if (fingerprint == null) {
+            fingerprint = LocatorCache.fingerprint(document);
+        }
+        return fingerprint;
+    }
+
+    /** Visible text of the filtered page. */
+    public String text() {
+        return document.text();
+    }
+
+    /** Token index over the filtered tree, shared by every lookup on this page state. */
+    public synchronized DomIndex index() {
+        if (index == null) {
+            index = new DomIndex(document);
+        }
+        return index;
+    }
+
+    /** The filtered tree as a namespace-less W3C document, for evaluating XPath with javax.xml. */
+    public synchronized org.w3c.dom.Document w3c() {
+        if (w3c == null) {
+            w3c = new W3CDom().namespaceAware(false).fromJsoup(document);
+        }
+        return w3c;
+    }
+
+    /**
+     * Elements whose own text contains the needle, case-insensitive, in document order.
+     * Same hits as {@code *:matchesOwn((?i)<quoted needle>)} without a regex per element.
+     */
+    public Elements withOwnTextContaining(String needle) {
+        return index().ownTextSubstring(needle);
+    }
+}
@@ -1,14 +1,18 @@
 package com.example.utils;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Attribute;
-import org.jsoup.nodes.Attributes;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
 
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * DOM filtering utilities for Fonio.
@@ -18,10 +22,12 @@ import java.util.regex.Pattern;
  */
 public class DomUtils {
 
+    private static final Trace LOG = Trace.of(DomUtils.class);
+
     // ---------- Config ----------
     private static final int SNIPPET_PARENT_DEPTH = 3;     // how far up to climb for snippet context
     private static final int SNIPPET_SIBLING_LIMIT = 12;   // max siblings to include per context node
-    private static final int MAX_OUTPUT_CHARS = 200_000;    // safety cap for LLM prompts
+    static final int MAX_OUTPUT_CHARS = 200_000;    // safety cap for LLM prompts
 
     private static final Set<String> KEEP_TAGS = new HashSet<>(Arrays.asList(
             "a","button","input","select","option","textarea","label",
@@ -43,23 +49,6 @@ public class DomUtils {
             "slds-hide","slds-assistive-text","uiInput--hidden","hide","d-none"
     ));
 
-    // Salesforce-specific IDs/classes to drop (chrome, header, footer, etc.)
-    private static final Set<String> SF_REMOVE_IDS = new HashSet<>(Arrays.asList(
-            "oneHeader","navMenu","tabBar","globalHeader","appNav","publisherFooter","footer"
-    ));
-
-    private static final Set<String> SF_REMOVE_CLASSES = new HashSet<>(Arrays.asList(
-            "slds-global-header","slds-context-bar","branding-header","utilityBar","appLauncher",
-            "slds-page-header","slds-global-actions","forceHeader","navigationMenu"
-    ));
-
-    // Attribute allow-list (others get dropped to reduce prompt noise)
-    private static final Set<String> KEEP_ATTRS_COMMON = new HashSet<>(Arrays.asList(
-            "id","name","type","value","placeholder","title","role","href","for"
-    ));
-    private static final Set<String> KEEP_ATTR_PREFIXES = new HashSet<>(Arrays.asList(
-            "aria-","data-","data-testid","data-test","data-qa"
-    ));
 
     // ---------- Public API ----------
 
@@ -67,237 +56,189 @@ public class DomUtils {
 
 
     public static String filterRelevantHtml(String rawHtml) {
+        return snapshot(rawHtml).html();
+    }
+
+    /**
+     * Parses and filters a page once. The snapshot carries the filtered tree and the
+     * same serialized HTML {@link #filterRelevantHtml(String)} returns.
+     */
+    public static DomSnapshot snapshot(String rawHtml) {
         if (rawHtml == null || rawHtml.isEmpty()) {
-            System.err.println("Warning: Input HTML is null or empty");
-            return "";
+            LOG.warn(() -> "Input HTML is null or empty");
+            return unfiltered("");
         }
 
         try {
-            System.out.println("Starting DOM filtering... Input length: " + rawHtml.length());
-            
+            LOG.debug(() -> "Starting DOM filtering... Input length: " + rawHtml.length());
+
+            JfrEvents.DomStage parse = new JfrEvents.DomStage();
             Document doc = Jsoup.parse(rawHtml);
+            if (parse.finish()) {
+                parse.stage = "parse";
+                parse.inputChars = rawHtml.length();
+                parse.elements = doc.getAllElements().size();
+                parse.commit();
+            }
             if (doc == null || doc.body() == null) {
-                System.err.println("Error: Jsoup failed to parse HTML");
-                return rawHtml.length() > MAX_OUTPUT_CHARS ? rawHtml.substring(0, MAX_OUTPUT_CHARS) : rawHtml;
+                LOG.warn(() -> "Jsoup failed to parse HTML");
+                return unfiltered(rawHtml);
             }
             
-            boolean isSalesforce = isSalesforceLightning(doc);
-            System.out.println("Detected Salesforce Lightning: " + isSalesforce);
-
-            baseStrip(doc);
-            System.out.println("Base strip completed");
-            
-            stripHidden(doc, isSalesforce);
-            System.out.println("Hidden elements stripped");
-            
-            if (isSalesforce) {
-                stripSalesforceChromeSafe(doc);
-                System.out.println("Salesforce chrome stripped");
+            JfrEvents.DomStage filter = new JfrEvents.DomStage();
+            boolean isSalesforce = detectSalesforceLightning(doc);
+            LOG.debug(() -> "Detected Salesforce Lightning: " + isSalesforce);
+
+            new SinglePassFilter(isSalesforce).apply(doc);
+            if (filter.finish()) {
+                filter.stage = isSalesforce ? "filter (Lightning)" : "filter";
+                filter.inputChars = rawHtml.length();
+                filter.elements = doc.getAllElements().size();
+                filter.commit();
             }
 
-            unwrapNonKeptTags(doc);
-            System.out.println("Non-kept tags unwrapped");
-            
-            pruneAttributesSafe(doc);
-            System.out.println("Attributes pruned");
-            
-            removeEmptyNodes(doc);
-            System.out.println("Empty nodes removed");
-
+            JfrEvents.DomStage serialize = new JfrEvents.DomStage();
             String out = compact(doc.body().html());
             if (out == null || out.isEmpty()) {
-                System.err.println("Warning: Filtered HTML is empty, returning original");
-                return rawHtml.length() > MAX_OUTPUT_CHARS ? rawHtml.substring(0, MAX_OUTPUT_CHARS) : rawHtml;
+                LOG.warn(() -> "Filtered HTML is empty, returning original");
+                return unfiltered(rawHtml);
             }
             
             String result = cap(out, MAX_OUTPUT_CHARS);
-            System.out.println("DOM filtering completed. Output length: " + result.length());
-            return result;
+            if (serialize.finish()) {
+                serialize.stage = "serialize";
+                serialize.outputChars = result.length();
+                serialize.commit();
+            }
+            LOG.debug(() -> "DOM filtering completed. Output length: " + result.length());
+            return new DomSnapshot(rawHtml, doc, result);
 
         } catch (Exception e) {
-            System.err.println("Error filtering HTML: " + e.getMessage());
-            System.err.println("Stack trace: " + e.toString());
-            e.printStackTrace();
-            
+            LOG.error(() -> "Error filtering HTML: " + e.getMessage(), e);
+
             // Return a simplified version of the HTML if processing fails
-            if (rawHtml.length() > MAX_OUTPUT_CHARS) {
-                return rawHtml.substring(0, MAX_OUTPUT_CHARS);
-            }
-            return rawHtml;
+            return unfiltered(rawHtml);
         }
     }
 
-    /** Detects if this is a Salesforce Lightning DOM. */
-    private static boolean isSalesforceLightning(Document doc) {
-        // More specific Salesforce detection
-        return doc.select("body.auraBody, #auraLoadingBox, .slds-global-header, [data-aura-class]").size() > 0 ||
-               doc.select("div[class*='slds-'], div[class*='force'], div[class*='ui']").size() > 5;
-    }
-
-    /** Removes scripts, styles, meta, link, and other non-UI noise. */
-    private static void baseStrip(Document doc) {
-        // More selective removal - keep some meta elements that might be useful
-        doc.select("script, style, noscript, svg, canvas, video, audio, source, track").remove();
-        // Keep link and meta but remove non-essential ones
-        doc.select("link[rel='stylesheet'], link[rel='icon']").remove();
-        doc.select("meta[name='viewport'], meta[charset]").remove();
-    }
-
-    /** Removes truly hidden elements. */
-    private static void stripHidden(Document doc, boolean isSalesforce) {
-        for (Element el : doc.select("*")) {
-            String style = el.attr("style").toLowerCase();
-            String hiddenAttr = el.attr("hidden");
-            String ariaHidden = el.attr("aria-hidden");
-
-            boolean isHidden = (style.contains("display:none") || 
-                              style.contains("visibility:hidden") || 
-                              !hiddenAttr.isEmpty() ||
-                              "true".equals(ariaHidden));
-            
-            if (isHidden) {
-                // In SF, skip removing if it contains interactive elements (might be lazy-loaded)
-                if (isSalesforce && el.select("a, button, input, select, textarea").size() > 0) continue;
-                // Don't remove if it has important attributes for identification
-                if (el.hasAttr("id") || el.hasAttr("name") || el.hasAttr("data-testid")) continue;
-                el.remove();
+    /**
+     * Builds a snapshot from the JsonML tree returned by {@link BrowserDomExtractor}.
+     * The browser already applied the filter rules, so the tree is only rebuilt and serialized.
+     */
+    public static DomSnapshot snapshotOfExtraction(String jsonMl) {
+        try {
+            JfrEvents.DomStage rebuild = new JfrEvents.DomStage();
+            Document doc = Document.createShell("");
+            appendJsonMl(doc.body(), new JSONArray(jsonMl), null);
+            DomSnapshot snapshot = filteredSnapshot(jsonMl, doc);
+            if (rebuild.finish()) {
+                rebuild.stage = "rebuild extraction";
+                rebuild.inputChars = jsonMl.length();
+                rebuild.outputChars = snapshot.html().length();
+                rebuild.commit();
             }
+            LOG.debug(() -> "In-browser DOM extraction: " + jsonMl.length() + " chars, filtered length: " + snapshot.html().length());
+            return snapshot;
+        } catch (Exception e) {
+            LOG.warn(() -> "Error reading in-browser DOM extraction: " + e.getMessage());
+            return unfiltered(jsonMl);
         }
     }
 
-    /** Strips only known irrelevant Salesforce chrome, keeps utility bar and functional UI. */
-    private static void stripSalesforceChromeSafe(Document doc) {
-        // More conservative Salesforce chrome removal
-        Elements chromeParts = doc.select(
-                ".slds-global-header," +
-                ".slds-context-bar," +
-                ".forceBrandBand," +
-                ".slds-nav-vertical," +
-                ".slds-page-header"
-        );
-        for (Element e : chromeParts) {
-            // Keep elements that contain interactive elements or have important attributes
-            if (e.select("a, button, input, select, textarea").size() > 0 ||
-                e.hasAttr("id") || e.hasAttr("data-testid") || e.hasAttr("data-qa")) {
-                continue;
-            }
-            // Only remove if it's purely decorative
-            if (e.text().trim().isEmpty() && e.select("img").isEmpty()) {
-                e.remove();
-            }
-        }
+    /** Serializes an already filtered tree into a snapshot. */
+    static DomSnapshot filteredSnapshot(String source, Document doc) {
+        return new DomSnapshot(source, doc, cap(compact(doc.body().html()), MAX_OUTPUT_CHARS));
     }
 
-    /** Unwrap tags that are not semantically important, but preserve content. */
-    private static void unwrapNonKeptTags(Document doc) {
-        // More selective unwrapping - only unwrap if content is preserved
-        Elements spans = doc.select("span");
-        for (Element span : spans) {
-            // Don't unwrap spans with important attributes
-            if (span.hasAttr("id") || span.hasAttr("class") || span.hasAttr("data-testid")) {
-                continue;
-            }
-            // Only unwrap if it doesn't break the structure
-            if (span.parent() != null && span.children().size() <= 1) {
-                try {
-                    span.unwrap();
-                } catch (Exception e) {
-                    // If unwrapping fails, keep the span
-                    System.err.println("Failed to unwrap span: " + e.getMessage());
+    /**
+     * Copies the attributes and children of a JsonML element array onto {@code target}.
+     * Journal keys (attribute "#k") go to {@code keys} when given and are never copied.
+     */
+    static void appendJsonMl(Element target, JSONArray node, Map<Integer, Element> keys) {
+        int i = 1;
+        JSONObject attrs = node.optJSONObject(i);
+        if (attrs != null) {
+            for (String key : attrs.keySet()) {
+                if ("#k".equals(key)) {
+                    if (keys != null) keys.put(attrs.getInt(key), target);
+                } else {
+                    target.attr(key, attrs.getString(key));
                 }
             }
+            i++;
         }
-        
-        // Remove purely decorative tags
-        doc.select("font, b, i, u").forEach(el -> {
-            if (el.parent() != null && !el.hasAttr("id") && !el.hasAttr("class")) {
-                try {
-                    el.unwrap();
-                } catch (Exception e) {
-                    // Keep if unwrapping fails
-                }
+        for (; i < node.length(); i++) {
+            Object child = node.get(i);
+            if (child instanceof JSONArray) {
+                JSONArray element = (JSONArray) child;
+                appendJsonMl(target.appendElement(element.getString(0)), element, keys);
+            } else {
+                target.appendText(child.toString());
             }
-        });
+        }
     }
 
-    /** Keep only functional attributes that are crucial for element identification. */
-    private static void pruneAttributesSafe(Document doc) {
-        for (Element el : doc.getAllElements()) {
-            // Create a modifiable copy of attributes to avoid UnsupportedOperationException
-            List<Attribute> attributesToRemove = new ArrayList<>();
-            
-            for (Attribute attr : el.attributes()) {
-                String key = attr.getKey();
-                String value = attr.getValue();
-                
-                // Check if this attribute should be removed
-                boolean shouldRemove = true;
-                
-                // Keep crucial attributes for element identification
-                if (key.equals("id") || key.equals("name") || key.equals("type") || 
-                    key.equals("value") || key.equals("placeholder") || key.equals("title") ||
-                    key.equals("href") || key.equals("src") || key.equals("alt") ||
-                    key.equals("class") || key.equals("role") || key.equals("for")) {
-                    shouldRemove = false;
-                }
-                
-                // Keep accessibility and testing attributes
-                if (key.startsWith("aria-") || key.startsWith("data-") || 
-                    key.startsWith("data-test") || key.startsWith("data-qa")) {
-                    shouldRemove = false;
-                }
-                
-                // Keep Salesforce-specific attributes
-                if (key.startsWith("force-") || key.startsWith("aura-") || 
-                    key.startsWith("lightning-") || key.startsWith("slds-")) {
-                    shouldRemove = false;
-                }
-                
-                if (shouldRemove) {
-                    attributesToRemove.add(attr);
+    /** Snapshot of the (capped) raw page, for when filtering fails or leaves nothing. */
+    private static DomSnapshot unfiltered(String rawHtml) {
+        String html = cap(rawHtml, MAX_OUTPUT_CHARS);
+        return new DomSnapshot(rawHtml, Jsoup.parse(html), html);
+    }
+
+    /**
+     * Detects a Salesforce Lightning DOM in one walk that stops at the first marker or the
+     * sixth div with an slds-/force/ui class, instead of two full selector scans.
+     */
+    static boolean detectSalesforceLightning(Document doc) {
+        int[] markedDivs = {0};
+        NodeFilter detector = (node, depth) -> {
+            if (!(node instanceof Element)) return NodeFilter.FilterResult.CONTINUE;
+            Element el = (Element) node;
+            String tag = el.normalName();
+            boolean marker = ("body".equals(tag) && el.hasClass("auraBody"))
+                    || "auraLoadingBox".equals(el.id())
+                    || el.hasClass("slds-global-header")
+                    || el.hasAttr("data-aura-class");
+            if (marker) return NodeFilter.FilterResult.STOP;
+            if ("div".equals(tag) && el.hasAttr("class")) {
+                String cls = el.attr("class").toLowerCase();
+                if ((cls.contains("slds-") || cls.contains("force") || cls.contains("ui")) && ++markedDivs[0] > 5) {
+                    return NodeFilter.FilterResult.STOP;
                 }
             }
-            
-            // Remove the attributes that should be removed
-            for (Attribute attr : attributesToRemove) {
-                el.removeAttr(attr.getKey());
-            }
-        }
+            return NodeFilter.FilterResult.CONTINUE;
+        };
+        return NodeTraversor.filter(detector, doc) == NodeFilter.FilterResult.STOP;
     }
 
-    /** Removes tags with no text and no children. */
-    private static void removeEmptyNodes(Document doc) {
-        for (Element el : doc.select("*")) {
-            if (el.children().isEmpty() && el.text().trim().isEmpty()) {
-                el.remove();
-            }
-        }
+    private static boolean isFormControl(Element e) {
+        String tag = e.tagName();
+        return "input".equals(tag) || "select".equals(tag) || "textarea".equals(tag) || "button".equals(tag);
     }
 
     /** Collapses excessive whitespace. */
-    private static String compact(String html) {
+    static String compact(String html) {
         return html.replaceAll("\\s{2,}", " ").trim();
     }
 
     /** Truncate to size limit. */
-    private static String cap(String text, int maxChars) {
+    static String cap(String text, int maxChars) {
         return text.length() > maxChars ? text.substring(0, maxChars) : text;
     }
 
-    public static String extractSnippetByDescription(String dom, String description) {
-        if (dom == null || dom.isEmpty()) {
-            System.err.println("Warning: DOM is null or empty for snippet extraction");
+    public static String extractSnippetByDescription(DomSnapshot dom, String description) {
+        if (dom == null || dom.html().isEmpty()) {
+            LOG.warn(() -> "DOM is null or empty for snippet extraction");
             return "";
         }
         
         try {
-            Document doc = Jsoup.parse(dom);
+            Document doc = dom.document();
             String lowerDesc = description.toLowerCase();
-            System.out.println("Extracting snippet for description: " + description);
+            LOG.debug(() -> "Extracting snippet for description: " + description);
 
             // Search elements with matching text, labels, or attributes
-            Elements candidates = doc.select("*:matchesOwn((?i)" + Pattern.quote(lowerDesc) + ")");
-            System.out.println("Found " + candidates.size() + " text-matching candidates");
+            Elements candidates = dom.withOwnTextContaining(lowerDesc);
+            LOG.debug(() -> "Found " + candidates.size() + " text-matching candidates");
 
             if (candidates.isEmpty()) {
                 // Try searching for label "for" attribute matching description words
@@ -308,8 +249,8 @@ public class DomUtils {
                         if (!forAttr.isEmpty()) {
                             Element input = doc.getElementById(forAttr);
                             if (input != null) {
-                                System.out.println("Found input via label association");
-                                return buildContextSnippet(input).outerHtml();
+                                LOG.debug(() -> "Found input via label association");
+                                return cap(buildContextSnippet(input).outerHtml(), MAX_OUTPUT_CHARS);
                             }
                         }
                     }
@@ -325,13 +266,13 @@ public class DomUtils {
                     
                     if (placeholder.contains(lowerDesc) || name.contains(lowerDesc) || 
                         id.contains(lowerDesc) || (type.equals("text") && lowerDesc.contains("user"))) {
-                        System.out.println("Found input via attribute matching");
-                        return buildContextSnippet(input).outerHtml();
+                        LOG.debug(() -> "Found input via attribute matching");
+                        return cap(buildContextSnippet(input).outerHtml(), MAX_OUTPUT_CHARS);
                     }
                 }
                 
-                System.out.println("No candidates found, returning filtered DOM");
-                return filterRelevantHtml(dom);
+                LOG.debug(() -> "No candidates found, returning filtered DOM");
+                return dom.html();
             }
 
             // Return outer HTML of first candidate with more context
@@ -354,13 +295,14 @@ public class DomUtils {
                 }
             }
             
-            System.out.println("Built snippet with context, size: " + snippetRoot.outerHtml().length());
-            return snippetRoot.outerHtml();
+            // The snapshot tree is not capped like its serialized form
+            String snippet = cap(snippetRoot.outerHtml(), MAX_OUTPUT_CHARS);
+            LOG.debug(() -> "Built snippet with context, size: " + snippet.length());
+            return snippet;
             
         } catch (Exception e) {
-            System.err.println("Error extracting snippet: " + e.getMessage());
-            e.printStackTrace();
-            return filterRelevantHtml(dom);
+            LOG.error(() -> "Error extracting snippet: " + e.getMessage(), e);
+            return dom.html();
         }
     }
     
@@ -384,155 +326,257 @@ public class DomUtils {
     /**
      * Filter HTML and return a small snippet focused around a human description.
      * Useful to feed to the LLM for precise locator generation.
+     * Filters the page in one traversal via {@link #snapshot(String)}, then focuses on the seeds.
      */
     public static String filterRelevantHtml(String rawHtml, String description) {
         if (rawHtml == null || rawHtml.isEmpty()) return "";
-        if (description == null || description.isBlank()) return filterRelevantHtml(rawHtml);
-
-        try {
-            Document doc = Jsoup.parse(rawHtml);
-            boolean isSalesforce = isSalesforceLightning(doc);
-
-            baseStrip(doc);
-            stripHidden(doc, isSalesforce);
-            if (isSalesforce) stripSalesforceChrome(doc);
-
-            // Find seed elements likely matching the description
-            Elements seeds = findSeeds(doc, description);
-
-            // If no seeds found, fallback to global filter
-            if (seeds.isEmpty()) {
-                unwrapNonKeptTags(doc);
-                pruneAttributes(doc, isSalesforce);
-                removeEmptyNodes(doc);
-                String out = compact(doc.body().html());
-                return cap(out, MAX_OUTPUT_CHARS);
-            }
-
-            // Build a focused context snippet around seeds
-            Document snippetDoc = buildContextSnippet(seeds);
-
-            // Clean & compress snippet
-            unwrapNonKeptTags(snippetDoc);
-            pruneAttributes(snippetDoc, isSalesforce);
-            removeEmptyNodes(snippetDoc);
+        return filterRelevantHtml(snapshot(rawHtml), description);
+    }
 
-            String out = compact(snippetDoc.body().html());
-            return cap(out, MAX_OUTPUT_CHARS);
-        } catch (Exception e) {
-            System.err.println("Error filtering HTML with description: " + e.getMessage());
-            // Return a simplified version of the HTML if processing fails
-            return rawHtml.length() > MAX_OUTPUT_CHARS ? rawHtml.substring(0, MAX_OUTPUT_CHARS) : rawHtml;
-        }
+    /**
+     * Same focus as {@link #filterRelevantHtml(String, String)} on an already filtered snapshot.
+     * Seeds come from the snapshot's {@link DomIndex}, so several descriptions share one index.
+     */
+    public static String filterRelevantHtml(DomSnapshot dom, String description) {
+        if (dom == null) return "";
+        if (description == null || description.isBlank()) return dom.html();
+
+        Elements seeds = findSeeds(dom.index(), description);
+        if (seeds.isEmpty()) return dom.html();
+        Document snippetDoc = buildContextSnippet(seeds);
+        return cap(compact(snippetDoc.body().html()), MAX_OUTPUT_CHARS);
     }
 
     /**
      * Only text (no tags) after filtering.
      */
     public static String extractRelevantText(String rawHtml) {
-        return Jsoup.parse(filterRelevantHtml(rawHtml)).text();
+        return snapshot(rawHtml).text();
     }
 
-    // ---------- Heuristics ----------
+    // ---------- Single-pass filter ----------
 
+    /**
+     * Applies baseStrip, stripHidden, stripSalesforceChromeSafe, unwrapNonKeptTags,
+     * pruneAttributesSafe and removeEmptyNodes in one {@link NodeFilter} traversal. Those passes
+     * live on as the reference MultiPassDomFilter in src/bench, checked against this filter
+     * by DomFilterEquivalenceTest.
+     * - Local rules (strip, hidden, attributes) run on the element itself.
+     * - Subtree rules read flags and child counts gathered in tail(), as they stood
+     *   at the point of the multi-pass pipeline where each rule used to run.
+     * - Unwraps are queued and applied after the walk; the traversor needs the
+     *   element in place to find its next sibling.
+     */
+    private static final class SinglePassFilter implements NodeFilter {
+        // Subtree flags (element itself included)
+        private static final int HAS_TEXT = 1;             // non-blank text after hidden/chrome removal
+        private static final int HAS_IMG = 1 << 1;         // img after hidden removal
+        private static final int INTERACTIVE = 1 << 2;     // a/button/input/select/textarea after hidden removal
+        private static final int INTERACTIVE_ANY = 1 << 3; // same, before hidden removal (stripHidden's view)
+
+        private final boolean isSalesforce;
+        private final List<Element> unwraps = new ArrayList<>();
+
+        // Per-depth frames of the elements currently open on the traversal path
+        private int[] flags = new int[64];
+        private int[] keptChildren = new int[64];   // element children after hidden/chrome removal
+        private int[] flatChildren = new int[64];   // element children once unwraps are applied
+        private boolean[] hiddenPending = new boolean[64];
+
+        // Contribution of the element whose tail just ran, read by its parent
+        private boolean lastKept;
+        private int lastFlags;
+        private int lastFlatCount;
+
+        SinglePassFilter(boolean isSalesforce) {
+            this.isSalesforce = isSalesforce;
+        }
 
+        void apply(Document doc) {
+            NodeTraversor.filter(this, doc);
+            for (Element el : unwraps) {
+                el.unwrap();
+            }
+        }
 
+        @Override
+        public FilterResult head(Node node, int depth) {
+            if (node instanceof TextNode) {
+                if (!isBlankText(((TextNode) node).getWholeText())) flags[depth - 1] |= HAS_TEXT;
+                return FilterResult.CONTINUE;
+            }
+            if (!(node instanceof Element)) return FilterResult.CONTINUE;
+
+            Element el = (Element) node;
+            ensureCapacity(depth);
+            flags[depth] = 0;
+            keptChildren[depth] = 0;
+            flatChildren[depth] = 0;
+            hiddenPending[depth] = false;
+            if (node instanceof Document) return FilterResult.CONTINUE;
+
+            String tag = el.normalName();
+            if (isBaseStripped(el, tag)) return FilterResult.REMOVE;
+
+            if (isHidden(el) && !el.hasAttr("id") && !el.hasAttr("name") && !el.hasAttr("data-testid")) {
+                // Outside SF a hidden element goes regardless of its content
+                if (!isSalesforce) return FilterResult.REMOVE;
+                hiddenPending[depth] = true;
+            }
+            if (isInteractive(tag)) flags[depth] |= INTERACTIVE | INTERACTIVE_ANY;
+            if ("img".equals(tag)) flags[depth] |= HAS_IMG;
+            return FilterResult.CONTINUE;
+        }
 
-    private static void stripSalesforceChrome(Document doc) {
-        for (String id : SF_REMOVE_IDS) doc.select("#" + id).remove();
-        for (String cls : SF_REMOVE_CLASSES) doc.select("." + cls).remove();
-        // Unwrap aura/ltng technical containers
-        doc.select("*").forEach(el -> {
-            String tag = el.tagName();
-            if (tag.startsWith("aura") || tag.startsWith("ltng") || tag.equals("one-app") || tag.equals("one-appnav")) {
-                el.unwrap();
+        @Override
+        public FilterResult tail(Node node, int depth) {
+            if (!(node instanceof Element) || node instanceof Document) return FilterResult.CONTINUE;
+
+            Element el = (Element) node;
+            FilterResult result = decide(el, depth);
+            Element parent = el.parent();
+            if (depth > 0 && parent != null) {
+                flags[depth - 1] |= lastFlags & INTERACTIVE_ANY;
+                if (lastKept) {
+                    flags[depth - 1] |= lastFlags;
+                    keptChildren[depth - 1]++;
+                    flatChildren[depth - 1] += lastFlatCount;
+                }
             }
-        });
-    }
+            return result;
+        }
 
-    private static void pruneAttributes(Document doc, boolean isSalesforce) {
-        for (Element el : doc.getAllElements()) {
-            if ("html".equals(el.tagName()) || "body".equals(el.tagName())) continue;
+        /** Runs the subtree-dependent rules for a closed element and records its contribution. */
+        private FilterResult decide(Element el, int depth) {
+            int f = flags[depth];
+            lastFlags = f;
+            lastKept = false;
+            lastFlatCount = 0;
 
-            Attributes attrs = el.attributes();
-            // Copy to avoid concurrent mutation
-            List<Attribute> toCheck = new ArrayList<>(attrs.asList());
+            // stripHidden (SF): kept only when it wraps something interactive
+            if (hiddenPending[depth] && (f & INTERACTIVE_ANY) == 0) {
+                return FilterResult.REMOVE;
+            }
 
-            // First remove everything
-            for (Attribute a : toCheck) {
-                el.removeAttr(a.getKey());
+            // stripSalesforceChromeSafe
+            if (isSalesforce && isChrome(el)) {
+                boolean keep = (f & INTERACTIVE) != 0
+                        || el.hasAttr("id") || el.hasAttr("data-testid") || el.hasAttr("data-qa");
+                if (!keep && (f & (HAS_TEXT | HAS_IMG)) == 0) {
+                    return FilterResult.REMOVE;
+                }
             }
 
-            // Then re-add only the allowed/common attributes
-            for (Attribute a : toCheck) {
-                String k = a.getKey();
-                String v = a.getValue();
+            lastKept = true;
 
-                if (KEEP_ATTRS_COMMON.contains(k)) {
-                    el.attr(k, v);
-                    continue;
-                }
-                // prefixes
-                for (String p : KEEP_ATTR_PREFIXES) {
-                    if (k.startsWith(p)) {
-                        el.attr(k, v);
-                        break;
-                    }
-                }
+            // unwrapNonKeptTags: the parent sees the unwrapped element's children instead
+            if (isUnwrapped(el, keptChildren[depth])) {
+                unwraps.add(el);
+                lastFlatCount = flatChildren[depth];
+                return FilterResult.CONTINUE;
             }
+            lastFlatCount = 1;
 
-            // For anchors, keep href if short/meaningful
-            if ("a".equals(el.tagName())) {
-                String href = el.hasAttr("href") ? el.attr("href") : null;
-                if (href != null && href.length() <= 300 && !href.startsWith("javascript:")) {
-                    el.attr("href", href);
-                }
+            // removeEmptyNodes: judged on the tree after unwrapping, before any empty removal
+            if (flatChildren[depth] == 0 && (f & HAS_TEXT) == 0 && !isFormControl(el)) {
+                return FilterResult.REMOVE;
             }
 
-            // For inputs: keep key attributes if present
-            if ("input".equals(el.tagName()) || "textarea".equals(el.tagName()) || "select".equals(el.tagName())) {
-                keepIfPresent(el, "id","name","type","placeholder","title","aria-label","data-testid","data-test","data-qa","value");
+            pruneAttributes(el);
+            return FilterResult.CONTINUE;
+        }
+
+        private void ensureCapacity(int depth) {
+            if (depth < flags.length) return;
+            int size = Math.max(flags.length * 2, depth + 1);
+            flags = Arrays.copyOf(flags, size);
+            keptChildren = Arrays.copyOf(keptChildren, size);
+            flatChildren = Arrays.copyOf(flatChildren, size);
+            hiddenPending = Arrays.copyOf(hiddenPending, size);
+        }
+
+        private static boolean isBaseStripped(Element el, String tag) {
+            switch (tag) {
+                case "script": case "style": case "noscript": case "svg": case "canvas":
+                case "video": case "audio": case "source": case "track":
+                    return true;
+                case "link":
+                    return attrEquals(el, "rel", "stylesheet") || attrEquals(el, "rel", "icon");
+                case "meta":
+                    return attrEquals(el, "name", "viewport") || el.hasAttr("charset");
+                default:
+                    return false;
             }
+        }
 
-            // For SF, SLDS classes might be useful to infer role
-            if (isSalesforce) {
-                String cls = el.className();
-                if (cls != null && (cls.contains("slds-") || cls.contains("uiInput") || cls.contains("force"))) {
-                    el.attr("class", cls);
-                }
-            } else {
-                // For generic sites, keep classes only if short & likely semantic
-                String cls = el.className();
-                if (cls != null && !cls.isBlank()) {
-                    String shortCls = shortenClasses(cls, 5, 40);
-                    if (!shortCls.isBlank()) el.attr("class", shortCls);
-                }
+        /** Matches jsoup's [key=value] selector: case-insensitive, trimmed. */
+        private static boolean attrEquals(Element el, String key, String value) {
+            return el.hasAttr(key) && value.equalsIgnoreCase(el.attr(key).trim());
+        }
+
+        private static boolean isHidden(Element el) {
+            if (el.attributesSize() == 0) return false;
+            String style = el.attr("style").toLowerCase();
+            return style.contains("display:none")
+                    || style.contains("visibility:hidden")
+                    || !el.attr("hidden").isEmpty()
+                    || "true".equals(el.attr("aria-hidden"));
+        }
+
+        private static boolean isInteractive(String tag) {
+            return "a".equals(tag) || "button".equals(tag) || "input".equals(tag)
+                    || "select".equals(tag) || "textarea".equals(tag);
+        }
+
+        private static boolean isChrome(Element el) {
+            return el.hasAttr("class")
+                    && (el.hasClass("slds-global-header") || el.hasClass("slds-context-bar")
+                    || el.hasClass("forceBrandBand") || el.hasClass("slds-nav-vertical")
+                    || el.hasClass("slds-page-header"));
+        }
+
+        private static boolean isUnwrapped(Element el, int keptChildren) {
+            switch (el.normalName()) {
+                case "span":
+                    return !el.hasAttr("id") && !el.hasAttr("class") && !el.hasAttr("data-testid")
+                            && keptChildren <= 1;
+                case "font": case "b": case "i": case "u":
+                    return !el.hasAttr("id") && !el.hasAttr("class");
+                default:
+                    return false;
             }
         }
-    }
 
-    private static void keepIfPresent(Element el, String... keys) {
-        for (String k : keys) if (el.hasAttr(k)) el.attr(k, el.attr(k));
-    }
+        /** Same allow-list as pruneAttributesSafe. */
+        private static void pruneAttributes(Element el) {
+            if (el.attributesSize() == 0) return;
+            Iterator<Attribute> it = el.attributes().iterator();
+            while (it.hasNext()) {
+                String key = it.next().getKey();
+                boolean keep = key.equals("id") || key.equals("name") || key.equals("type")
+                        || key.equals("value") || key.equals("placeholder") || key.equals("title")
+                        || key.equals("href") || key.equals("src") || key.equals("alt")
+                        || key.equals("class") || key.equals("role") || key.equals("for")
+                        || key.startsWith("aria-") || key.startsWith("data-")
+                        || key.startsWith("force-") || key.startsWith("aura-")
+                        || key.startsWith("lightning-") || key.startsWith("slds-");
+                if (!keep) it.remove();
+            }
+        }
 
-    private static String shortenClasses(String cls, int maxTokens, int maxLen) {
-        String[] parts = cls.trim().split("\\s+");
-        StringBuilder sb = new StringBuilder();
-        int count = 0;
-        for (String p : parts) {
-            if (p.length() > 2 && count < maxTokens && (sb.length() + p.length() + 1) <= maxLen) {
-                if (sb.length() > 0) sb.append(' ');
-                sb.append(p);
-                count++;
+        /** True when Element.text().trim() would be empty for this text alone. */
+        private static boolean isBlankText(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c > ' ' && c != 160 && c != 8203 && c != 173) return false;
             }
+            return true;
         }
-        return sb.toString();
     }
 
-
     // ---------- Snippet extraction ----------
 
-    private static Elements findSeeds(Document doc, String description) {
+    static Elements findSeeds(DomIndex index, String description) {
         Elements seeds = new Elements();
 
         String q = description.trim();
@@ -549,29 +593,51 @@ public class DomUtils {
         boolean looksLikePass = lowered.contains("pass");
         boolean looksLikeBtn  = lowered.contains("button") || lowered.startsWith("click") || lowered.contains("sign in") || lowered.contains("login");
 
-        // 1) Direct text matches for labels/buttons/links
-        seeds.addAll(doc.select("label:matchesOwn((?i)" + Pattern.quote(q) + ")"));
-        seeds.addAll(doc.select("button:matchesOwn((?i)" + Pattern.quote(q) + ")"));
-        seeds.addAll(doc.select("a:matchesOwn((?i)" + Pattern.quote(q) + ")"));
-        seeds.addAll(doc.select("*:matchesOwn((?i)^\\s*" + Pattern.quote(q) + "\\s*$)"));
+        // 1) Direct text matches for labels/buttons/links, then any element whose own text is the description
+        for (Element el : index.ownTextContaining(q)) {
+            String tag = el.normalName();
+            if ("label".equals(tag) || "button".equals(tag) || "a".equals(tag)) seeds.add(el);
+        }
+        seeds.addAll(index.ownTextEquals(q));
 
-        // 2) Attribute-based matches (placeholder, aria-label, title, name, id)
-        seeds.addAll(doc.select("[placeholder~=(?i)" + Pattern.quote(q) + "]"));
-        seeds.addAll(doc.select("[aria-label~=(?i)" + Pattern.quote(q) + "]"));
-        seeds.addAll(doc.select("[title~=(?i)" + Pattern.quote(q) + "]"));
-        seeds.addAll(doc.select("[name~=(?i)" + Pattern.quote(q) + "]"));
-        seeds.addAll(doc.select("[id~=(?i)" + Pattern.quote(q) + "]"));
+        // 2) Attribute-based matches (placeholder, aria-label, title, name, id, data-*)
+        for (String attr : Arrays.asList("placeholder", "aria-label", "title", "name", "id", DomIndex.DATA_ATTRS)) {
+            seeds.addAll(index.attrContaining(attr, q));
+        }
 
         // 3) Heuristic fallbacks for common fields
         if (looksLikeUser) {
-            seeds.addAll(doc.select("input[type=text],input[type=email],input[name*=user i],input[name*=email i],input[id*=user i],input[id*=email i]"));
-            seeds.addAll(doc.select("label:matchesOwn((?i)user|email) + input"));
+            for (Element input : index.byTag("input")) {
+                String type = input.attr("type").toLowerCase(Locale.ROOT);
+                if ("text".equals(type) || "email".equals(type)
+                        || attrContainsAny(input, "name", "user", "email") || attrContainsAny(input, "id", "user", "email")) {
+                    seeds.add(input);
+                }
+            }
+            for (Element label : index.byTag("label")) {
+                String own = label.ownText().toLowerCase(Locale.ROOT);
+                Element next = label.nextElementSibling();
+                if ((own.contains("user") || own.contains("email")) && next != null && "input".equals(next.normalName())) {
+                    seeds.add(next);
+                }
+            }
         }
         if (looksLikePass) {
-            seeds.addAll(doc.select("input[type=password],input[name*=pass i],input[id*=pass i]"));
+            for (Element input : index.byTag("input")) {
+                if ("password".equalsIgnoreCase(input.attr("type"))
+                        || attrContainsAny(input, "name", "pass") || attrContainsAny(input, "id", "pass")) {
+                    seeds.add(input);
+                }
+            }
         }
         if (looksLikeBtn) {
-            seeds.addAll(doc.select("button, input[type=submit], a[role=button]"));
+            seeds.addAll(index.byTag("button"));
+            for (Element input : index.byTag("input")) {
+                if ("submit".equalsIgnoreCase(input.attr("type"))) seeds.add(input);
+            }
+            for (Element a : index.byTag("a")) {
+                if ("button".equalsIgnoreCase(a.attr("role"))) seeds.add(a);
+            }
             // Filter those by visible text contains words from q
             seeds = filterByTextContains(seeds, Arrays.asList("login","sign in","submit","continue","next","ok","search","save","apply"), lowered);
         }
@@ -580,6 +646,16 @@ public class DomUtils {
         return dedupe(seeds);
     }
 
+    /** Case-insensitive substring test on an attribute, like {@code [attr*=part i]}. */
+    private static boolean attrContainsAny(Element el, String attr, String... parts) {
+        if (!el.hasAttr(attr)) return false;
+        String value = el.attr(attr).toLowerCase(Locale.ROOT);
+        for (String part : parts) {
+            if (value.contains(part)) return true;
+        }
+        return false;
+    }
+
     private static Elements filterByTextContains(Elements elements, List<String> keywords, String descriptionLower) {
         Elements out = new Elements();
         for (Element e : elements) {
@@ -594,11 +670,10 @@ public class DomUtils {
     }
 
     private static Elements dedupe(Elements in) {
-        Set<String> seen = new HashSet<>();
+        Set<Element> seen = Collections.newSetFromMap(new IdentityHashMap<>());
         Elements out = new Elements();
         for (Element e : in) {
-            String key = e.cssSelector();
-            if (seen.add(key)) out.add(e);
+            if (seen.add(e)) out.add(e);
         }
         return out;
     }
@@ -608,18 +683,24 @@ public class DomUtils {
         Element root = snippet.body();
 
         // For each seed, climb parents to a reasonable container and copy a trimmed subtree
+        Set<Element> containers = Collections.newSetFromMap(new IdentityHashMap<>());
         for (Element seed : seeds) {
             Element container = climbParents(seed, SNIPPET_PARENT_DEPTH);
-            Element copy = shallowCloneWithLimitedSiblings(container, SNIPPET_SIBLING_LIMIT);
-            // Avoid duplicates by CSS key
-            String key = copy.cssSelector();
-            if (root.select(key).isEmpty()) {
-                root.appendChild(copy);
-            }
+            // Seeds sharing a container (or inside one already copied) add nothing new
+            if (containsSelfOrAncestor(containers, container)) continue;
+            containers.add(container);
+            root.appendChild(shallowCloneWithLimitedSiblings(container, SNIPPET_SIBLING_LIMIT));
         }
         return snippet;
     }
 
+    private static boolean containsSelfOrAncestor(Set<Element> set, Element el) {
+        for (Element cur = el; cur != null; cur = cur.parent()) {
+            if (set.contains(cur)) return true;
+        }
+        return false;
+    }
+
     private static Element climbParents(Element el, int depth) {
         Element cur = el;
         for (int i = 0; i < depth && cur.parent() != null; i++) {
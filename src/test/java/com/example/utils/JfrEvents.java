@@ -0,0 +1,106 @@
+package com.example.utils;
+
+import jdk.jfr.*;
+
+import java.util.function.Supplier;
+
+/**
+ * Java Flight Recorder events for framework activity, to line up GC, allocation and thread
+ * stalls with steps in JDK Mission Control. Settings: src/test/resources/jfr/fonio.jfc (mvn -Pjfr).
+ * Call sites fill in fields only when {@link FonioEvent#finish()} says the event is recorded,
+ * so without a recording an event costs a begin/end timestamp.
+ */
+public final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    /** Base of the events below: begin at construction, finish before filling in fields. */
+    @Category("Fonio")
+    @StackTrace(false)
+    abstract static class FonioEvent extends Event {
+        FonioEvent() {
+            begin();
+        }
+
+        /** Ends the event; true if it will be recorded, then set the fields and commit. */
+        public boolean finish() {
+            end();
+            return shouldCommit();
+        }
+    }
+
+    @Name("fonio.DomStage")
+    @Label("DOM Stage")
+    @Description("One stage of DOM parsing, filtering, serialization or snippet extraction")
+    public static final class DomStage extends FonioEvent {
+        @Label("Stage")
+        public String stage;
+
+        @Label("Input Chars")
+        public long inputChars;
+
+        @Label("Output Chars")
+        public long outputChars;
+
+        @Label("Elements")
+        @Description("Elements in the tree after the stage, where the stage produces one")
+        public long elements;
+    }
+
+    @Name("fonio.LlmRequest")
+    @Label("LLM Request")
+    @Description("One call to the model, from sending the prompt to the usable answer")
+    public static final class LlmRequest extends FonioEvent {
+        @Label("Model")
+        public String model;
+
+        @Label("Kind")
+        @Description("stream, blocking, async or batch")
+        public String kind;
+
+        @Label("Prompt Chars")
+        public long promptChars;
+
+        @Label("Response Chars")
+        public long responseChars;
+
+        @Label("Outcome")
+        @Description("json, unparsed or error")
+        public String outcome;
+    }
+
+    @Name("fonio.WebDriverCommand")
+    @Label("WebDriver Command")
+    @Description("A round trip to the browser issued by a step")
+    public static final class WebDriverCommand extends FonioEvent {
+        @Label("Command")
+        public String command;
+
+        @Label("Detail")
+        public String detail;
+    }
+
+    // ---------- Helpers ----------
+
+    /** Runs a browser call inside a {@link WebDriverCommand} event; detail is only turned into text when recorded. */
+    public static <T> T driverCommand(String command, Object detail, Supplier<T> call) {
+        WebDriverCommand event = new WebDriverCommand();
+        try {
+            return call.get();
+        } finally {
+            if (event.finish()) {
+                event.command = command;
+                event.detail = detail == null ? null : detail.toString();
+                event.commit();
+            }
+        }
+    }
+
+    public static void driverCommand(String command, Object detail, Runnable call) {
+        driverCommand(command, detail, () -> {
+            call.run();
+            return null;
+        });
+    }
+}
@@ -1,58 +1,333 @@
 package com.example.utils;
 
-import org.apache.hc.client5.http.fluent.Request;
-import org.apache.hc.core5.http.ContentType;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.jsoup.nodes.Element;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class LLMClient {
 
-    private static final String LLM_API_URL = "http://localhost:11434/api/chat"; // Update if needed
-
-    public String getActionForStep(String dom, String stepText) throws Exception {
-        String prompt = String.format(
-                "You are an automation assistant.\n" +
-                        "Given this HTML DOM:\n%s\n" +
-                        "And this instruction:\n%s\n" +
-                        "Return a JSON with keys 'action', 'locator', and 'value' (if applicable).",
-                dom, stepText);
-
-        String requestBody = String.format(
-                "{\n" +
-                        "  \"model\": \"mistral:7b\",\n" +
-                        "  \"messages\": [\n" +
-                        "    {\"role\": \"system\", \"content\": \"You are a helpful assistant for web automation.\"},\n" +
-                        "    {\"role\": \"user\", \"content\": \"%s\"}\n" +
-                        "  ]\n" +
-                        "}", escapeJson(prompt));
-
-        String response = Request.post(LLM_API_URL)
-                .bodyString(requestBody, ContentType.APPLICATION_JSON)
-                .execute()
-                .returnContent()
-                .asString();
+    private static final Trace LOG = Trace.of(LLMClient.class);
 
-        try {
-            JSONObject jsonResponse = new JSONObject(response);
-            if (jsonResponse.has("choices")) {
-                JSONObject choice = jsonResponse.getJSONArray("choices").getJSONObject(0);
-                String content = choice.getJSONObject("message").getString("content").trim();
-                return cleanOutput(content);
+    // Endpoints (-Dfonio.llm.url or -Dfonio.llm.urls, or the stand-in) are chosen per call by LlmRouter
+    private static final String MODEL_NAME = System.getProperty("fonio.llm.model", "mistral:7b");
+
+    // Smaller models asked first, in order; an answer that is not clearly right escalates to MODEL_NAME
+    private static final List<String> CASCADE = models(System.getProperty("fonio.llm.cascade", ""));
+    private static final int CASCADE_TOKENS = Integer.getInteger("fonio.llm.cascadeTokens", 96);
+
+    // Stream NDJSON chunks and hang up as soon as a complete locator object has arrived
+    private static final boolean STREAMING = Boolean.parseBoolean(System.getProperty("fonio.llm.streaming", "true"));
+
+    // Descriptions resolved per model call by askForLocators; larger batches are split
+    private static final int BATCH_SIZE = Integer.getInteger("fonio.llm.batchSize", 10);
+    private static final int TOKENS_PER_LOCATOR = 200;
+    private static final int MIN_CONTEXT_TOKENS = 2_048;
+
+    // Re-prompts with the rejection reason when a locator fails validation against the snapshot
+    private static final int REPAIR_ATTEMPTS = Integer.getInteger("fonio.llm.repairAttempts", 2);
+
+    // Ollama structured output: the model can only emit this object
+    private static final JSONObject LOCATOR_SCHEMA = new JSONObject()
+            .put("type", "object")
+            .put("properties", new JSONObject()
+                    .put("primary", new JSONObject().put("type", "string"))
+                    .put("fallback", new JSONObject().put("type", "string")))
+            .put("required", new JSONArray().put("primary").put("fallback"));
+
+    private static final String LOCATOR_INSTRUCTIONS = "You are a senior QA automation engineer specializing in Selenium locators. Find the most reliable and maintainable locator for the element described, treating the description as intent and not requiring exact tag matches. FIRST normalize the description: lowercase, trim, collapse spaces. EXTRACT label tokens by removing generic UI words: button, link, tab, icon, image, img, label, field, box, div, span, section, panel, menu, card, header, footer, item, option, tile. The remaining token(s) are the TARGET LABEL (e.g., \"start\" from \"Start Button\"). DO NOT replace the target label with any other word if an exact match exists in the DOM.\n" +
+            "Matching precedence (in order, stop at first unique hit):\n" +
+            "1) Exact attribute equals TARGET LABEL (case-insensitive) on aria-label, title, alt, placeholder, value, data-testid, data-qa, name, id. Prefer CSS attribute equals (e.g., [aria-label='Start']) and target the clickable element (e.g., a/button) if the label is on a child.\n" +
+            "2) Exact visible text equals TARGET LABEL (case-insensitive) using XPath with normalize-space() and translate(), selecting the CLICKABLE element if the text is in a child. Example pattern: //*[self::button or self::a or @role='button' or @role='link'][.//*/text() or text()][translate(normalize-space(string(.)),'ABCDEFGHIJKLMNOPQRSTUVWXYZ','abcdefghijklmnopqrstuvwxyz')='start']\n" +
+            "3) Visible text contains TARGET LABEL as a whole word (case-insensitive) when (1) and (2) yield no unique match. Use XPath with word-boundary logic via spaces, e.g., contains(concat(' ', translate(normalize-space(string(.)),'ABCDEFGHIJKLMNOPQRSTUVWXYZ','abcdefghijklmnopqrstuvwxyz'), ' '), ' start ')\n" +
+            "4) ONLY IF no candidates found by (1)-(3), try controlled synonyms for the TARGET LABEL and repeat steps (1)-(3). Allowed synonyms map (use ONLY these; do not invent others): logout↔sign out↔log off↔exit; login↔sign in↔log on; submit↔save↔apply↔confirm; cancel↔close↔dismiss; search↔find↔lookup; settings↔preferences↔options↔configuration; profile↔user info↔account settings; start↔begin↔get started↔start now↔launch; delete↔remove↔trash; accounts↔my accounts↔customer accounts↔account list; home↔dashboard↔start page. If an exact TARGET LABEL match exists, do NOT use a synonym.\n" +
+            "5) As a last resort ONLY (no text/attribute matches), consider stable structural/attribute combos (e.g., unique data-* on a nav item). NEVER default to generic types like button[type='submit'] unless the TARGET LABEL (or its allowed synonyms) is “submit”.\n" +
+            "Uniqueness and quality rules:\n" +
+            "- The locator must match EXACTLY ONE element in the provided DOM. If a selector could match multiple, refine with parent/ancestor or unique attributes.\n" +
+            "- Choose the actual clickable element (e.g., the <a> or <button>), not the inner <span>/<i>, unless the wrapper is not clickable.\n" +
+            "- Prefer CSS when attributes provide a stable hook. If only visible text uniquely identifies the element, PRIMARY MAY BE XPATH (allowed) because CSS in Selenium cannot match inner text.\n" +
+            "- HARD BANS: do not output comma-separated multi-selectors; do not guess unrelated labels (e.g., \"Login\" or \"Submit\" for “Start”); do not rely on dynamic class fragments or index-based selectors unless absolutely necessary.\n" +
+            "Output:\n" +
+            "Return ONLY valid JSON exactly in this format: { \"primary\": \"<best_selector>\", \"fallback\": \"<xpath_fallback_or_empty>\" }\n" +
+            "- primary: CSS when attribute-based; otherwise XPath if text-only is the most reliable.\n" +
+            "- fallback: provide a different reliable XPath or empty string if not needed.\n" +
+            "- No explanations or extra text.";
+
+    private final LlmRouter router;
+
+    public LLMClient() {
+        this(LlmRouter.shared());
+    }
+
+    public LLMClient(LlmRouter router) {
+        this.router = router;
+    }
+
+    public String askForLocator(DomSnapshot dom, String description) throws Exception {
+        String snippet = snippetFor(dom, description);
+        LOG.debug(() -> "Extracted snippet length: " + snippet.length());
+
+        String prompt = buildLocatorPrompt(snippet, description);
+        LOG.trace(() -> "Prompt is: " + prompt);
+
+        if (!CASCADE.isEmpty()) {
+            String cheap = cascade(dom, description, prompt);
+            if (cheap != null) return cheap;
+        }
+
+        String locator = toLocator(complete(prompt, MODEL_NAME, TOKENS_PER_LOCATOR, "locator " + description), description, snippet);
+        return validated(dom, description, snippet, locator);
+    }
+
+    /**
+     * Asks the -Dfonio.llm.cascade models in order, with at most -Dfonio.llm.cascadeTokens tokens.
+     * An answer is kept only when its primary matches exactly one element of the snapshot, its
+     * fallback matches the same one, and that element relates to the description. Returns null to
+     * escalate to MODEL_NAME, which also gets the repair loop. Counted as cascade.requests and
+     * cascade.escalated.
+     */
+    private String cascade(DomSnapshot dom, String description, String prompt) {
+        StepMetrics.count("cascade.requests");
+        LocatorValidator validator = new LocatorValidator(dom);
+        for (String model : CASCADE) {
+            String content;
+            try {
+                content = complete(prompt, model, CASCADE_TOKENS, "locator " + description + " " + model);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn(() -> "Cascade model " + model + " failed for '" + description + "': " + e.getMessage());
+                continue;
+            }
+            String locator = locatorJson(content);
+            String doubt;
+            try (StepMetrics.Timer t = StepMetrics.start("validate")) {
+                doubt = doubt(validator, description, locator);
+            }
+            if (doubt == null) {
+                LOG.info(() -> "Locator for '" + description + "' from " + model + ": " + locator);
+                return locator;
+            }
+            LOG.info(() -> "Escalating '" + description + "' past " + model + ": " + doubt);
+        }
+        StepMetrics.count("cascade.escalated");
+        return null;
+    }
+
+    /** Null if a small model's answer can be trusted, otherwise why not. */
+    private static String doubt(LocatorValidator validator, String description, String locator) {
+        if (locator == null) return "no locator JSON in the answer";
+        Element match = validator.agreedMatch(locator);
+        if (match == null) return "primary and fallback do not agree on exactly one element";
+        if (!CandidateRanker.isRelevant(match, description)) return "the matched <" + match.tagName() + "> does not relate to the description";
+        return null;
+    }
+
+    /**
+     * Checks a locator obtained elsewhere (prefetched, batched) against the snapshot and repairs it
+     * like {@link #askForLocator} does. Call on the thread that owns the snapshot.
+     */
+    public String validateLocator(DomSnapshot dom, String description, String locator) throws Exception {
+        return validated(dom, description, snippetFor(dom, description), locator);
+    }
+
+    /**
+     * Returns the locator once its primary or fallback matches exactly one element of the snapshot.
+     * Otherwise the locator is repaired locally if possible, or the model is asked again with the
+     * reason, at most -Dfonio.llm.repairAttempts times. The last answer is returned either way.
+     */
+    private String validated(DomSnapshot dom, String description, String snippet, String locator) throws Exception {
+        LocatorValidator validator = new LocatorValidator(dom);
+        for (int attempt = 0; ; attempt++) {
+            String rejection;
+            String repaired;
+            try (StepMetrics.Timer t = StepMetrics.start("validate")) {
+                long start = System.nanoTime();
+                rejection = validator.rejection(locator);
+                long micros = (System.nanoTime() - start) / 1_000;
+                LOG.debug(() -> "Validated locator for '" + description + "' against the snapshot in " + micros + " µs");
+                repaired = rejection != null ? validator.repairLocally(locator) : null;
+            }
+            if (rejection == null) return locator;
+
+            if (repaired != null) {
+                StepMetrics.count("validate.localRepair");
+                LOG.info(() -> "Repaired locator for '" + description + "' without the LLM: " + repaired);
+                return repaired;
+            }
+            String rejected = locator;
+            int repairs = attempt;
+            if (attempt >= REPAIR_ATTEMPTS) {
+                LOG.warn(() -> "Locator for '" + description + "' still rejected after " + repairs + " repairs: " + rejection);
+                return locator;
+            }
+            LOG.info(() -> "Rejected locator for '" + description + "': " + rejected + " - " + rejection);
+            StepMetrics.count("validate.reprompt");
+            String prompt = buildRepairPrompt(snippet, description, locator, rejection);
+            locator = toLocator(complete(prompt, MODEL_NAME, TOKENS_PER_LOCATOR, "repair " + description), description, snippet);
+        }
+    }
+
+    /**
+     * Sends the locator prompt and returns the model's content, streamed unless disabled.
+     * label names the captured prompt file (-Dfonio.log.prompts).
+     */
+    private String complete(String prompt, String model, int maxTokens, String label) throws IOException {
+        countCall(prompt);
+        Trace.Capture capture = Trace.prompt(label, prompt);
+        JfrEvents.LlmRequest event = new JfrEvents.LlmRequest();
+        String content = null;
+        Throwable failure = null;
+        try (StepMetrics.Timer t = StepMetrics.start("llm")) {
+            if (STREAMING) {
+                LOG.debug(() -> "Streaming locator from LLM...");
+                content = streamLocator(locatorRequestBody(prompt, true, model, maxTokens));
+            } else {
+                LOG.debug(() -> "Sending request to LLM for locator generation...");
+                String response = router.post(locatorRequestBody(prompt, false, model, maxTokens));
+                LOG.debug(() -> "Raw LLM response length: " + response.length());
+                countTokens(response);
+                content = parseLLMResponse(response);
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            commit(event, model, STREAMING ? "stream" : "blocking", prompt, content);
+            capture.answered(content, failure);
+        }
+        String parsed = content;
+        LOG.debug(() -> "Parsed content: " + parsed);
+        return content;
+    }
+
+    /**
+     * Non-blocking variant of {@link #askForLocator}. Uses the pooled async client
+     * and completes exceptionally if the call exceeds the transport deadline.
+     */
+    public CompletableFuture<String> askForLocatorAsync(DomSnapshot dom, String description) {
+        return locatorAsync(snippetFor(dom, description), description);
+    }
+
+    /**
+     * Resolves several elements of one page state with one model call per batch of up to
+     * -Dfonio.llm.batchSize descriptions, sharing the instructions and the snippet.
+     * Items the batch answer leaves missing or without a primary are asked again on their own.
+     * Every answer is then checked against the snapshot by {@link #validateLocator}, which repairs
+     * or re-asks only the items that fail. Call on the thread that owns the snapshot.
+     * Returns description -> locator JSON in the given order.
+     */
+    public Map<String, String> askForLocators(DomSnapshot dom, List<String> descriptions) throws Exception {
+        Map<String, String> locators = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<String>> entry : askForLocatorsAsync(dom, descriptions).entrySet()) {
+            String locator;
+            try {
+                locator = entry.getValue().join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            locators.put(entry.getKey(), validateLocator(dom, entry.getKey(), locator));
+        }
+        return locators;
+    }
+
+    /**
+     * Non-blocking variant of {@link #askForLocators}, one future per distinct description.
+     * A failed batch call fails its items; only unusable items are retried individually.
+     */
+    public Map<String, CompletableFuture<String>> askForLocatorsAsync(DomSnapshot dom, List<String> descriptions) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(descriptions));
+        Map<String, CompletableFuture<String>> locators = new LinkedHashMap<>();
+        for (int from = 0; from < distinct.size(); from += BATCH_SIZE) {
+            List<String> batch = distinct.subList(from, Math.min(from + BATCH_SIZE, distinct.size()));
+            if (batch.size() == 1) {
+                locators.put(batch.get(0), askForLocatorAsync(dom, batch.get(0)));
+                continue;
+            }
+
+            // Snippets are cut now: an incremental snapshot's tree may be patched while the call is in flight
+            Map<String, List<String>> parts = new LinkedHashMap<>();
+            Set<String> merged = new LinkedHashSet<>();
+            for (String description : batch) {
+                List<String> snippetParts = snippetPartsFor(dom, description);
+                parts.put(description, snippetParts);
+                merged.addAll(snippetParts);
+            }
+            String prompt = buildBatchLocatorPrompt(String.join("\n", merged), batch);
+            LOG.info(() -> "Asking LLM for " + batch.size() + " locators in one call, prompt length: " + prompt.length());
+            countCall(prompt);
+            Trace.Capture capture = Trace.prompt("batch " + String.join(", ", batch), prompt);
+
+            JfrEvents.LlmRequest event = new JfrEvents.LlmRequest();
+            CompletableFuture<JSONObject> answer = router.postAsync(batchRequestBody(prompt, batch.size()))
+                    .whenComplete((response, error) -> {
+                        commitResponse(event, "batch", prompt, response);
+                        captureResponse(capture, response, error);
+                    })
+                    .thenApply(response -> {
+                        countTokens(response);
+                        return batchAnswer(parseLLMResponse(response));
+                    });
+            for (int i = 0; i < batch.size(); i++) {
+                String description = batch.get(i);
+                String id = batchId(i);
+                String snippet = String.join("\n", parts.get(description));
+                locators.put(description, answer.thenCompose(json -> {
+                    JSONObject item = json.optJSONObject(id);
+                    if (item != null && !item.optString("primary").trim().isEmpty()) {
+                        LOG.debug(() -> "LLM batch locator for '" + description + "': " + item);
+                        return CompletableFuture.completedFuture(item.toString());
+                    }
+                    LOG.info(() -> "No usable batch locator for '" + description + "', asking for it alone");
+                    return locatorAsync(snippet, description);
+                }));
             }
-        } catch (Exception e) {
-            System.out.println("Failed to parse LLM response: " + e.getMessage());
-            System.out.println("Raw response: " + response);
         }
-        return response;
+        return locators;
     }
 
-    public String askForLocator(String dom, String description) throws Exception {
-        String snippet = DomUtils.extractSnippetByDescription(dom, description);
-        System.out.println("Extracted snippet length: " + snippet.length());
+    private CompletableFuture<String> locatorAsync(String snippet, String description) {
+        String prompt = buildLocatorPrompt(snippet, description);
+        countCall(prompt);
+        Trace.Capture capture = Trace.prompt("locator " + description, prompt);
+        JfrEvents.LlmRequest event = new JfrEvents.LlmRequest();
+        return router.postAsync(locatorRequestBody(prompt, false, MODEL_NAME, TOKENS_PER_LOCATOR))
+                .whenComplete((response, error) -> {
+                    commitResponse(event, "async", prompt, response);
+                    captureResponse(capture, response, error);
+                })
+                .thenApply(response -> {
+                    countTokens(response);
+                    return toLocator(parseLLMResponse(response), description, snippet);
+                });
+    }
+
+    /** Top-ranked candidates within the prompt token budget, or the region around the first text match. */
+    private String snippetFor(DomSnapshot dom, String description) {
+        return String.join("\n", snippetPartsFor(dom, description));
+    }
+
+    /** {@link #snippetFor} as separate candidate fragments, so a batch can send shared ones once. */
+    private List<String> snippetPartsFor(DomSnapshot dom, String description) {
+        JfrEvents.DomStage event = new JfrEvents.DomStage();
+        List<String> parts;
+        try (StepMetrics.Timer t = StepMetrics.start("snippet")) {
+            parts = CandidateRanker.isEnabled()
+                    ? CandidateRanker.rankedFragments(dom, description)
+                    : Collections.singletonList(DomUtils.extractSnippetByDescription(dom, description));
+        }
+        if (event.finish()) {
+            event.stage = CandidateRanker.isEnabled() ? "rank candidates" : "extract snippet";
+            event.inputChars = dom.html().length();
+            for (String part : parts) event.outputChars += part.length();
+            event.commit();
+        }
+        return parts;
+    }
 
+    private String buildLocatorPrompt(String snippet, String description) {
 //        String prompt = String.format(
 //                "You are a senior QA automation engineer specializing in Selenium locators.\n" +
 //                "Given this HTML DOM snippet:\n%s\n\n" +
@@ -79,90 +354,213 @@ public class LLMClient {
 //                snippet, description
 //        );
 
-        String prompt = String.format("You are a senior QA automation engineer specializing in Selenium locators. Find the most reliable and maintainable locator for the element described, treating the description as intent and not requiring exact tag matches. FIRST normalize the description: lowercase, trim, collapse spaces. EXTRACT label tokens by removing generic UI words: button, link, tab, icon, image, img, label, field, box, div, span, section, panel, menu, card, header, footer, item, option, tile. The remaining token(s) are the TARGET LABEL (e.g., \"start\" from \"Start Button\"). DO NOT replace the target label with any other word if an exact match exists in the DOM.\n" +
-                        "Matching precedence (in order, stop at first unique hit):\n" +
-                        "1) Exact attribute equals TARGET LABEL (case-insensitive) on aria-label, title, alt, placeholder, value, data-testid, data-qa, name, id. Prefer CSS attribute equals (e.g., [aria-label='Start']) and target the clickable element (e.g., a/button) if the label is on a child.\n" +
-                        "2) Exact visible text equals TARGET LABEL (case-insensitive) using XPath with normalize-space() and translate(), selecting the CLICKABLE element if the text is in a child. Example pattern: //*[self::button or self::a or @role='button' or @role='link'][.//*/text() or text()][translate(normalize-space(string(.)),'ABCDEFGHIJKLMNOPQRSTUVWXYZ','abcdefghijklmnopqrstuvwxyz')='start']\n" +
-                        "3) Visible text contains TARGET LABEL as a whole word (case-insensitive) when (1) and (2) yield no unique match. Use XPath with word-boundary logic via spaces, e.g., contains(concat(' ', translate(normalize-space(string(.)),'ABCDEFGHIJKLMNOPQRSTUVWXYZ','abcdefghijklmnopqrstuvwxyz'), ' '), ' start ')\n" +
-                        "4) ONLY IF no candidates found by (1)-(3), try controlled synonyms for the TARGET LABEL and repeat steps (1)-(3). Allowed synonyms map (use ONLY these; do not invent others): logout↔sign out↔log off↔exit; login↔sign in↔log on; submit↔save↔apply↔confirm; cancel↔close↔dismiss; search↔find↔lookup; settings↔preferences↔options↔configuration; profile↔user info↔account settings; start↔begin↔get started↔start now↔launch; delete↔remove↔trash; accounts↔my accounts↔customer accounts↔account list; home↔dashboard↔start page. If an exact TARGET LABEL match exists, do NOT use a synonym.\n" +
-                        "5) As a last resort ONLY (no text/attribute matches), consider stable structural/attribute combos (e.g., unique data-* on a nav item). NEVER default to generic types like button[type='submit'] unless the TARGET LABEL (or its allowed synonyms) is “submit”.\n" +
-                        "Uniqueness and quality rules:\n" +
-                        "- The locator must match EXACTLY ONE element in the provided DOM. If a selector could match multiple, refine with parent/ancestor or unique attributes.\n" +
-                        "- Choose the actual clickable element (e.g., the <a> or <button>), not the inner <span>/<i>, unless the wrapper is not clickable.\n" +
-                        "- Prefer CSS when attributes provide a stable hook. If only visible text uniquely identifies the element, PRIMARY MAY BE XPATH (allowed) because CSS in Selenium cannot match inner text.\n" +
-                        "- HARD BANS: do not output comma-separated multi-selectors; do not guess unrelated labels (e.g., \"Login\" or \"Submit\" for “Start”); do not rely on dynamic class fragments or index-based selectors unless absolutely necessary.\n" +
-                        "Output:\n" +
-                        "Return ONLY valid JSON exactly in this format: { \"primary\": \"<best_selector>\", \"fallback\": \"<xpath_fallback_or_empty>\" }\n" +
-                        "- primary: CSS when attribute-based; otherwise XPath if text-only is the most reliable.\n" +
-                        "- fallback: provide a different reliable XPath or empty string if not needed.\n" +
-                        "- No explanations or extra text."+
-                         " HTML DOM Snippet: "+snippet+" Find Element "+description);
-        System.out.println("Prompt is: " + prompt);
-        String requestBody = String.format(
-                "{\n" +
-                "  \"model\": \"mistral:7b\",\n" +
-                "  \"messages\": [\n" +
-                "    {\"role\": \"system\", \"content\": \"You are a QA automation expert. Always return valid JSON locators for Selenium.\"},\n" +
-                "    {\"role\": \"user\", \"content\": \"%s\"}\n" +
-                "  ],\n" +
-                "  \"temperature\": 0.1,\n" +
-                "  \"max_tokens\": 200\n" +
-                "}", escapeJson(prompt)
-        );
-
-        System.out.println("Sending request to LLM for locator generation...");
-        String response = Request.post(LLM_API_URL)
-                .bodyString(requestBody, ContentType.APPLICATION_JSON)
-                .execute()
-                .returnContent()
-                .asString();
-
-        System.out.println("Raw LLM response length: " + response.length());
-
-        // Parse the response more robustly
-        String content = parseLLMResponse(response);
-        System.out.println("Parsed content: " + content);
-
-        // Try parsing as JSON
-        try {
-            JSONObject locatorJson = new JSONObject(content);
-            System.out.println("LLM JSON locator for '" + description + "': " + locatorJson.toString());
-            
-            // Validate the JSON structure
-            if (locatorJson.has("primary") && !locatorJson.getString("primary").trim().isEmpty()) {
-                return locatorJson.toString();
-            } else {
-                throw new Exception("Invalid JSON structure - missing or empty primary locator");
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to parse locator JSON: " + e.getMessage());
-            System.err.println("Content: " + content);
-            
-            // Try to extract JSON from the content
-            String extractedJson = extractJsonFromText(content);
-            if (extractedJson != null) {
-                try {
-                    JSONObject json = new JSONObject(extractedJson);
-                    if (json.has("primary") && !json.getString("primary").trim().isEmpty()) {
-                        System.out.println("Successfully extracted JSON: " + json.toString());
-                        return json.toString();
-                    }
-                } catch (Exception ex) {
-                    System.err.println("Failed to parse extracted JSON: " + ex.getMessage());
-                }
-            }
+        return LOCATOR_INSTRUCTIONS + " HTML DOM Snippet: " + snippet + " Find Element " + description;
+    }
+
+    /** The locator prompt followed by the rejected answer and why it was rejected. */
+    private String buildRepairPrompt(String snippet, String description, String rejected, String rejection) {
+        return buildLocatorPrompt(snippet, description) +
+                " Your previous answer " + rejected + " was rejected: " + rejection + "." +
+                " Return a different locator that matches exactly one element.";
+    }
+
+    /** The single-element instructions once, then one snippet and every description under an id (e1, e2, ...). */
+    private String buildBatchLocatorPrompt(String snippet, List<String> descriptions) {
+        StringBuilder elements = new StringBuilder();
+        for (int i = 0; i < descriptions.size(); i++) {
+            elements.append(i == 0 ? "" : "; ").append(batchId(i)).append(": ").append(descriptions.get(i));
+        }
+        return LOCATOR_INSTRUCTIONS +
+                " Several elements are requested at once. Apply the rules to each element separately against the same snippet," +
+                " and return ONLY one JSON object whose keys are the element ids and whose values are locator objects in the format above," +
+                " e.g. { \"e1\": { \"primary\": \"...\", \"fallback\": \"...\" }, \"e2\": { ... } }." +
+                " HTML DOM Snippet: " + snippet + " Find Elements " + elements;
+    }
+
+    private static List<String> models(String list) {
+        List<String> models = new ArrayList<>();
+        for (String model : list.split(",")) {
+            if (!model.isBlank()) models.add(model.trim());
+        }
+        return models;
+    }
+
+    private static String batchId(int index) {
+        return "e" + (index + 1);
+    }
+
+    /** Accepts the model's JSON when it has a primary locator; otherwise falls back heuristically. */
+    String toLocator(String content, String description, String snippet) {
+        String locator = locatorJson(content);
+        if (locator != null) {
+            LOG.debug(() -> "LLM JSON locator for '" + description + "': " + locator);
+            return locator;
         }
 
         // Generate intelligent fallback based on description
         String fallback = generateIntelligentFallback(description, snippet);
-        System.out.println("Using intelligent fallback: " + fallback);
+        LOG.warn(() -> "No usable locator from the LLM for '" + description + "', using intelligent fallback: " + fallback);
         return fallback;
     }
-    
-    private String parseLLMResponse(String response) {
+
+    /**
+     * The model's content as locator JSON if it has a primary; else null. Requests carry
+     * {@link #LOCATOR_SCHEMA} as format, so the content is the JSON object itself.
+     */
+    private String locatorJson(String content) {
+        try {
+            JSONObject json = new JSONObject(content);
+            if (!json.optString("primary").trim().isEmpty()) return json.toString();
+            LOG.debug(() -> "Locator JSON without a primary: " + content);
+        } catch (Exception e) {
+            LOG.debug(() -> "Failed to parse locator JSON: " + e.getMessage() + ", content: " + content);
+        }
+        return null;
+    }
+
+    /** Chat request for a locator, constrained to {@link #LOCATOR_SCHEMA}. */
+    private String locatorRequestBody(String prompt, boolean stream, String model, int maxTokens) {
+        JSONArray messages = new JSONArray()
+                .put(new JSONObject().put("role", "system")
+                        .put("content", "You are a QA automation expert. Always return valid JSON locators for Selenium."))
+                .put(new JSONObject().put("role", "user").put("content", prompt));
+        return new JSONObject()
+                .put("model", model)
+                .put("messages", messages)
+                .put("stream", stream)
+                .put("format", LOCATOR_SCHEMA)
+                .put("options", new JSONObject().put("temperature", 0.1).put("num_predict", maxTokens))
+                .toString();
+    }
+
+    /**
+     * Chat request for a batch: an object with one {@link #LOCATOR_SCHEMA} per element id.
+     * The context window is sized to the prompt in powers of two, so the few sizes in use
+     * do not make Ollama reload the model on every call.
+     */
+    private String batchRequestBody(String prompt, int count) {
+        JSONObject properties = new JSONObject();
+        JSONArray required = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            properties.put(batchId(i), LOCATOR_SCHEMA);
+            required.put(batchId(i));
+        }
+        JSONObject schema = new JSONObject().put("type", "object").put("properties", properties).put("required", required);
+
+        int predict = TOKENS_PER_LOCATOR * count;
+        int context = MIN_CONTEXT_TOKENS;
+        while (context < CandidateRanker.estimateTokens(prompt) + predict) context *= 2;
+
+        JSONArray messages = new JSONArray()
+                .put(new JSONObject().put("role", "system")
+                        .put("content", "You are a QA automation expert. Always return valid JSON locators for Selenium."))
+                .put(new JSONObject().put("role", "user").put("content", prompt));
+        return new JSONObject()
+                .put("model", MODEL_NAME)
+                .put("messages", messages)
+                .put("stream", false)
+                .put("format", schema)
+                .put("options", new JSONObject().put("temperature", 0.1).put("num_predict", predict).put("num_ctx", context))
+                .toString();
+    }
+
+    /** The batch object from the model's content; empty when unreadable, so every item is retried alone. */
+    JSONObject batchAnswer(String content) {
+        try {
+            return new JSONObject(content);
+        } catch (Exception e) {
+            LOG.warn(() -> "Failed to parse batch locator JSON: " + e.getMessage());
+            return new JSONObject();
+        }
+    }
+
+    /**
+     * Reads the NDJSON stream chunk by chunk and closes the connection as soon as
+     * the accumulated content holds a complete object with a non-empty primary.
+     * Ollama stops generating when the client disconnects.
+     */
+    private String streamLocator(String requestBody) throws IOException {
+        StringBuilder content = new StringBuilder();
+        JsonObjectScanner scanner = new JsonObjectScanner();
+        int[] chunks = {0};
+        String locator = router.stream(requestBody, line -> {
+            JSONObject chunk = new JSONObject(line);
+            if (chunk.has("error")) {
+                throw new IOException("LLM error: " + chunk.getString("error"));
+            }
+            chunks[0]++;
+            JSONObject message = chunk.optJSONObject("message");
+            String piece = message == null ? "" : message.optString("content");
+            content.append(piece);
+            return scanner.feed(piece);
+        });
+        // One chunk per generated token
+        StepMetrics.add("llm.tokens", chunks[0]);
+        if (locator != null) {
+            LOG.debug(() -> "Locator complete after " + chunks[0] + " streamed chunks");
+            return locator;
+        }
+        return content.toString();
+    }
+
+    private static void countCall(String prompt) {
+        StepMetrics.count("llm.calls");
+        StepMetrics.add("llm.promptChars", prompt.length());
+    }
+
+    /** Records the request for JFR; content is null when the call failed. */
+    private void commit(JfrEvents.LlmRequest event, String model, String kind, String prompt, String content) {
+        if (event.finish()) record(event, model, kind, prompt, content);
+    }
+
+    /** Writes a raw response's content to the prompt capture, parsed only when capturing. */
+    private void captureResponse(Trace.Capture capture, String response, Throwable error) {
+        if (capture.isEnabled()) capture.answered(response == null ? null : parseLLMResponse(response), error);
+    }
+
+    /** {@link #commit} for a raw response, parsed only when the event is recorded. */
+    private void commitResponse(JfrEvents.LlmRequest event, String kind, String prompt, String response) {
+        if (event.finish()) record(event, MODEL_NAME, kind, prompt, response == null ? null : parseLLMResponse(response));
+    }
+
+    private void record(JfrEvents.LlmRequest event, String model, String kind, String prompt, String content) {
+        event.model = model;
+        event.kind = kind;
+        event.promptChars = prompt.length();
+        event.responseChars = content == null ? 0 : content.length();
+        event.outcome = content == null ? "error" : outcome(content);
+        event.commit();
+    }
+
+    private String outcome(String content) {
+        try {
+            new JSONObject(content);
+            return "json";
+        } catch (Exception e) {
+            return "unparsed";
+        }
+    }
+
+    /** Generated tokens of a non-streamed response (Ollama's eval_count). */
+    private static void countTokens(String response) {
+        try {
+            StepMetrics.add("llm.tokens", new JSONObject(response).optLong("eval_count"));
+        } catch (Exception e) {
+            // Unreadable responses are handled by the caller
+        }
+    }
+
+    /**
+     * The message content of an Ollama or OpenAI-style chat response, or the body itself when it
+     * is not one. Schema-constrained output needs no markdown or prose cleanup afterwards.
+     */
+    String parseLLMResponse(String response) {
         try {
-            // Try to parse as standard Ollama response
             JSONObject jsonResponse = new JSONObject(response);
+            JSONObject ollamaMessage = jsonResponse.optJSONObject("message");
+            if (ollamaMessage != null && ollamaMessage.has("content")) {
+                return ollamaMessage.getString("content").trim();
+            }
             if (jsonResponse.has("choices")) {
                 JSONArray choices = jsonResponse.getJSONArray("choices");
                 if (choices.length() > 0) {
@@ -176,33 +574,11 @@ public class LLMClient {
                 }
             }
         } catch (Exception e) {
-            // Not a standard response, try to extract content
+            // Not a chat response
         }
-        
-        // Fallback: try to find JSON-like content in the response
-        String content = response.replaceAll("```[a-zA-Z]*", "").replace("```", "").trim();
-        content = content.replaceAll("^`|`$", "").trim();
-        return content;
-    }
-    
-    private String extractJsonFromText(String text) {
-        // Look for JSON-like patterns
-        int start = text.indexOf("{");
-        int end = text.lastIndexOf("}");
-        
-        if (start >= 0 && end > start) {
-            String jsonCandidate = text.substring(start, end + 1);
-            try {
-                // Validate it's actually JSON
-                new JSONObject(jsonCandidate);
-                return jsonCandidate;
-            } catch (Exception e) {
-                // Not valid JSON
-            }
-        }
-        return null;
+        return response.trim();
     }
-    
+
     private String generateIntelligentFallback(String description, String domSnippet) {
         String lowerDesc = description.toLowerCase();
         
@@ -222,56 +598,54 @@ public class LLMClient {
 
 
     // --- Helpers ---
-    private String parseStreamingLocator(String ndjson) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new StringReader(ndjson))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    JSONObject obj = new JSONObject(line);
-                    if (obj.has("message")) {
-                        JSONObject message = obj.getJSONObject("message");
-                        if (message.has("content")) {
-                            sb.append(message.getString("content"));
-                        }
+
+    /**
+     * Incremental brace matcher over streamed text. Returns the first complete
+     * top-level JSON object that carries a non-empty "primary", or null.
+     */
+    static final class JsonObjectScanner {
+        private final StringBuilder buffer = new StringBuilder();
+        private int start = -1;
+        private int depth;
+        private boolean inString;
+        private boolean escaped;
+
+        String feed(String piece) {
+            for (int i = 0; i < piece.length(); i++) {
+                char ch = piece.charAt(i);
+                buffer.append(ch);
+                if (start < 0) {
+                    if (ch == '{') {
+                        start = buffer.length() - 1;
+                        depth = 1;
                     }
+                    continue;
+                }
+                if (inString) {
+                    if (escaped) escaped = false;
+                    else if (ch == '\\') escaped = true;
+                    else if (ch == '"') inString = false;
+                    continue;
+                }
+                if (ch == '"') {
+                    inString = true;
+                } else if (ch == '{') {
+                    depth++;
+                } else if (ch == '}' && --depth == 0) {
+                    String candidate = buffer.substring(start);
+                    start = -1;
+                    if (hasPrimary(candidate)) return candidate;
                 }
             }
+            return null;
         }
-        return sb.toString();
-    }
-
-    private boolean isValidLocator(String locator) {
-        return locator.startsWith("#") || locator.startsWith("//") || locator.contains("[") || locator.contains(".");
-    }
-
-    private String cleanOutput(String text) {
-        return text
-                .replaceAll("```[a-zA-Z]*", "")
-                .replace("```", "")
-                .replaceAll("^`|`$", "")
-                .replaceAll("^LOCATOR:\\s*", "")
-                .trim();
-    }
 
-    private String findLocatorFromDom(String dom, String keyword) {
-        if (dom.contains("id=\"" + keyword + "\"")) {
-            return "#" + keyword;
-        }
-        if (dom.contains("name=\"" + keyword + "\"")) {
-            return "*[name='" + keyword + "']";
-        }
-        if (dom.toLowerCase().contains("label for=\"" + keyword + "\"")) {
-            return "label[for='" + keyword + "'] + *";
+        private static boolean hasPrimary(String json) {
+            try {
+                return !new JSONObject(json).optString("primary").trim().isEmpty();
+            } catch (Exception e) {
+                return false;
+            }
         }
-        return "//input[contains(@id,'" + keyword + "') or contains(@name,'" + keyword + "')]";
-    }
-
-    private String fallbackLocator(String description) {
-        return "id=" + description.toLowerCase().replaceAll("[^a-zA-Z0-9]", "");
-    }
-
-    private String escapeJson(String str) {
-        return str.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
     }
 }
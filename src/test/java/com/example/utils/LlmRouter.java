@@ -0,0 +1,360 @@
+package com.example.utils;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads {@link LLMClient} calls over one or more model endpoints, e.g. several local Ollama processes.
+ * - Endpoints: -Dfonio.llm.urls=http://localhost:11434/api/chat,http://localhost:11435/api/chat
+ *   (default -Dfonio.llm.url; the stand-in replaces both when -Dfonio.llm.standin is set).
+ * - Balancing: each call goes to the healthy endpoint with the fewest requests in flight. At most
+ *   -Dfonio.llm.maxInFlight (4) per endpoint; further calls wait for a slot, within the call deadline.
+ * - Health: a refused connection, or -Dfonio.llm.ejectAfterFailures (3) failures in a row, take an
+ *   endpoint out of rotation; every -Dfonio.llm.healthIntervalMs (10000) each endpoint is probed and
+ *   put back once it answers. If none is healthy, all are used. A call whose connection was refused
+ *   never reached a model, so it is retried once on another endpoint.
+ * - Hedging (-Dfonio.llm.hedge=true): a blocking, async or batch call still unanswered after its
+ *   endpoint's p95 latency is sent again to another endpoint with a free slot; the first answer wins
+ *   and the other call is aborted. Streamed calls are balanced but not hedged.
+ */
+public class LlmRouter {
+
+    private static final Trace LOG = Trace.of(LlmRouter.class);
+
+    // ---------- Config ----------
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("fonio.llm.maxInFlight", 4);
+    private static final int EJECT_AFTER_FAILURES = Integer.getInteger("fonio.llm.ejectAfterFailures", 3);
+    private static final long HEALTH_INTERVAL_MS = Long.getLong("fonio.llm.healthIntervalMs", 10_000L);
+    private static final boolean HEDGE = Boolean.getBoolean("fonio.llm.hedge");
+    private static final long DEADLINE_MS = Long.getLong("fonio.llm.deadlineMs", 120_000L);
+
+    private static final int LATENCY_WINDOW = 128;     // recent answers per endpoint for the p95
+    private static final int MIN_HEDGE_SAMPLES = 20;   // no hedging before the p95 means something
+
+    private static final LlmRouter SHARED = new LlmRouter(LlmTransport.shared(), configuredUrls());
+
+    private final LlmTransport transport;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fonio-llm-router");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public LlmRouter(LlmTransport transport, List<String> urls) {
+        if (urls.isEmpty()) throw new IllegalArgumentException("No LLM endpoint configured");
+        this.transport = transport;
+        for (String url : urls) endpoints.add(new Endpoint(url));
+        if (endpoints.size() > 1) {
+            timer.scheduleWithFixedDelay(this::checkHealth, HEALTH_INTERVAL_MS, HEALTH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static LlmRouter shared() {
+        return SHARED;
+    }
+
+    /** Endpoint URLs from the system properties, in order. */
+    static List<String> configuredUrls() {
+        if (LlmStandIn.isEnabled()) return Collections.singletonList(LlmStandIn.shared().chatUrl());
+        String urls = System.getProperty("fonio.llm.urls", System.getProperty("fonio.llm.url", "http://localhost:11434/api/chat"));
+        List<String> list = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.isBlank()) list.add(url.trim());
+        }
+        return list;
+    }
+
+    /** One model endpoint. Mutable state is guarded by the router. */
+    private static final class Endpoint {
+        final String url;
+        final String root;
+        final long[] latencies = new long[LATENCY_WINDOW];
+        int samples;
+        int inFlight;
+        int failures;
+        boolean healthy = true;
+
+        Endpoint(String url) {
+            this.url = url;
+            this.root = URI.create(url).resolve("/").toString();
+        }
+
+        void recordLatency(long millis) {
+            latencies[samples++ % LATENCY_WINDOW] = millis;
+        }
+
+        /** p95 of the recent answers in ms, or -1 while there are too few. */
+        long p95() {
+            int n = Math.min(samples, LATENCY_WINDOW);
+            if (n < MIN_HEDGE_SAMPLES) return -1;
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(0.95 * n) - 1];
+        }
+    }
+
+    // ---------- Public API (as LlmTransport, without the URL) ----------
+
+    /** Blocking POST; goes through {@link #postAsync} so it is balanced, retried and hedged the same way. */
+    public String post(String jsonBody) throws IOException {
+        return join(postAsync(jsonBody));
+    }
+
+    public <T> T stream(String jsonBody, LlmTransport.LineHandler<T> handler) throws IOException {
+        Endpoint refused = null;
+        while (true) {
+            Endpoint endpoint = acquire(refused);
+            long start = System.nanoTime();
+            Throwable error = null;
+            try {
+                return transport.stream(endpoint.url, jsonBody, handler);
+            } catch (IOException | RuntimeException e) {
+                error = e;
+                // Nothing was streamed from an endpoint that refused the connection
+                if (refused != null || !isRefused(e) || endpoints.size() == 1) throw e;
+                refused = endpoint;
+            } finally {
+                // A stream cut off at the first locator is not comparable with whole answers
+                release(endpoint, start, error, false);
+            }
+        }
+    }
+
+    public CompletableFuture<String> postAsync(String jsonBody) {
+        Exchange exchange = new Exchange(jsonBody);
+        exchange.open.incrementAndGet();
+        exchange.slot(acquireAsync(null)).thenAccept(endpoint -> {
+            send(exchange, endpoint, false);
+            long hedgeAfter = hedging() ? p95(endpoint) : -1;
+            if (hedgeAfter >= 0) timer.schedule(() -> hedge(exchange, endpoint), hedgeAfter, TimeUnit.MILLISECONDS);
+        });
+        exchange.result.orTimeout(DEADLINE_MS, TimeUnit.MILLISECONDS).whenComplete((body, error) -> {
+            for (CompletableFuture<Endpoint> slot : exchange.slots) slot.cancel(false);
+            // Abort whichever call is still running: the loser of a hedge, or all after a timeout
+            for (CompletableFuture<String> call : exchange.calls) call.cancel(false);
+        });
+        return exchange.result;
+    }
+
+    // ---------- Hedged exchanges ----------
+
+    /**
+     * One logical request and the calls sent for it. open counts calls that are in flight or
+     * about to be sent; the request fails only when the last of them fails.
+     */
+    private static final class Exchange {
+        final String body;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final List<CompletableFuture<Endpoint>> slots = new CopyOnWriteArrayList<>();
+        final List<CompletableFuture<String>> calls = new CopyOnWriteArrayList<>();
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger retries = new AtomicInteger();
+
+        Exchange(String body) {
+            this.body = body;
+        }
+
+        CompletableFuture<Endpoint> slot(CompletableFuture<Endpoint> slot) {
+            slots.add(slot);
+            return slot;
+        }
+    }
+
+    /** Sends one call of the exchange; the caller has counted it in open. */
+    private void send(Exchange exchange, Endpoint endpoint, boolean hedge) {
+        if (exchange.result.isDone()) {
+            exchange.open.decrementAndGet();
+            release(endpoint, System.nanoTime(), new CancellationException(), false);
+            return;
+        }
+        long start = System.nanoTime();
+        CompletableFuture<String> call = transport.postAsync(endpoint.url, exchange.body);
+        exchange.calls.add(call);
+        call.whenComplete((body, error) -> {
+            release(endpoint, start, error, true);
+            if (error == null) {
+                exchange.open.decrementAndGet();
+                if (exchange.result.complete(body) && hedge) {
+                    StepMetrics.count("llm.hedgeWon");
+                    LOG.debug(() -> "Hedged request to " + endpoint.url + " answered first");
+                }
+                return;
+            }
+            if (isRefused(error) && endpoints.size() > 1 && !exchange.result.isDone()
+                    && exchange.retries.getAndIncrement() == 0) {
+                // Still counted in open: the retry takes this call's place
+                LOG.debug(() -> "Connection to " + endpoint.url + " refused, retrying on another endpoint");
+                exchange.slot(acquireAsync(endpoint)).thenAccept(next -> send(exchange, next, hedge));
+                return;
+            }
+            if (exchange.open.decrementAndGet() == 0) exchange.result.completeExceptionally(error);
+        });
+        // Cancelled by postAsync after the answer arrived in the meantime
+        if (exchange.result.isDone()) call.cancel(false);
+    }
+
+    /** Sends the duplicate, unless the first call answered or no other endpoint has room. */
+    private void hedge(Exchange exchange, Endpoint first) {
+        if (exchange.result.isDone()) return;
+        Endpoint second;
+        synchronized (this) {
+            second = tryAcquire(first);
+        }
+        if (second == null) return;
+        exchange.open.incrementAndGet();
+        StepMetrics.count("llm.hedged");
+        LOG.debug(() -> "No answer from " + first.url + " within its p95, hedging to " + second.url);
+        send(exchange, second, true);
+    }
+
+    private boolean hedging() {
+        return HEDGE && endpoints.size() > 1;
+    }
+
+    private synchronized long p95(Endpoint endpoint) {
+        return endpoint.p95();
+    }
+
+    // ---------- Slots ----------
+
+    /** Blocks for a slot on any endpoint but the excluded one (may be null), until the call deadline. */
+    private Endpoint acquire(Endpoint exclude) throws IOException {
+        CompletableFuture<Endpoint> slot = acquireAsync(exclude);
+        try {
+            return slot.get(DEADLINE_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // A slot handed over just now is returned
+            if (!slot.cancel(false)) release(slot.join(), System.nanoTime(), new CancellationException(), false);
+            throw new IOException("No LLM endpoint had a free slot within " + DEADLINE_MS + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            slot.cancel(false);
+            throw new IOException("Interrupted while waiting for an LLM endpoint", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private CompletableFuture<Endpoint> acquireAsync(Endpoint exclude) {
+        synchronized (this) {
+            Endpoint endpoint = tryAcquire(exclude);
+            if (endpoint != null) return CompletableFuture.completedFuture(endpoint);
+            Waiter waiter = new Waiter(exclude);
+            waiting.add(waiter);
+            return waiter.slot;
+        }
+    }
+
+    /** A call waiting for a slot, in arrival order. */
+    private static final class Waiter {
+        final CompletableFuture<Endpoint> slot = new CompletableFuture<>();
+        final Endpoint exclude;
+
+        Waiter(Endpoint exclude) {
+            this.exclude = exclude;
+        }
+    }
+
+    /** The endpoint with the fewest calls in flight and a free slot, preferring healthy ones; ties rotate. */
+    private Endpoint tryAcquire(Endpoint exclude) {
+        boolean anyHealthy = false;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != exclude && endpoint.healthy) anyHealthy = true;
+        }
+        Endpoint best = null;
+        int offset = Math.floorMod(cursor.getAndIncrement(), endpoints.size());
+        for (int i = 0; i < endpoints.size(); i++) {
+            Endpoint endpoint = endpoints.get((offset + i) % endpoints.size());
+            if (endpoint == exclude || endpoint.inFlight >= MAX_IN_FLIGHT || (anyHealthy && !endpoint.healthy)) continue;
+            if (best == null || endpoint.inFlight < best.inFlight) best = endpoint;
+        }
+        if (best != null) best.inFlight++;
+        return best;
+    }
+
+    /**
+     * Frees the slot, records the outcome and hands freed slots to waiting calls in arrival order.
+     * Cancellations (hedge losers, timed-out waits) count neither as answers nor as failures.
+     */
+    private void release(Endpoint endpoint, long startNanos, Throwable error, boolean recordLatency) {
+        boolean ejected = false;
+        List<CompletableFuture<Endpoint>> handOver = new ArrayList<>();
+        List<Endpoint> slots = new ArrayList<>();
+        synchronized (this) {
+            endpoint.inFlight--;
+            if (error == null) {
+                endpoint.failures = 0;
+                if (recordLatency) endpoint.recordLatency((System.nanoTime() - startNanos) / 1_000_000);
+            } else if (!(error instanceof CancellationException)) {
+                endpoint.failures++;
+                if (endpoint.healthy && endpoints.size() > 1 && (isRefused(error) || endpoint.failures >= EJECT_AFTER_FAILURES)) {
+                    endpoint.healthy = false;
+                    ejected = true;
+                }
+            }
+            for (Iterator<Waiter> it = waiting.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (waiter.slot.isDone()) {
+                    it.remove();
+                    continue;
+                }
+                Endpoint free = tryAcquire(waiter.exclude);
+                if (free == null) continue;
+                it.remove();
+                handOver.add(waiter.slot);
+                slots.add(free);
+            }
+        }
+        if (ejected) {
+            int failures = endpoint.failures;
+            LOG.warn(() -> "LLM endpoint " + endpoint.url + " taken out of rotation after " + failures + " failure(s): " + error);
+        }
+        // Completed outside the lock: the waiting call sends its request right away
+        for (int i = 0; i < handOver.size(); i++) {
+            if (!handOver.get(i).complete(slots.get(i))) release(slots.get(i), System.nanoTime(), new CancellationException(), false);
+        }
+    }
+
+    // ---------- Health ----------
+
+    private void checkHealth() {
+        for (Endpoint endpoint : endpoints) {
+            boolean up = transport.isReachable(endpoint.root);
+            boolean changed;
+            synchronized (this) {
+                changed = up != endpoint.healthy;
+                endpoint.healthy = up;
+                if (up) endpoint.failures = 0;
+            }
+            if (changed) LOG.warn(() -> "LLM endpoint " + endpoint.url + (up ? " is back in rotation" : " is unreachable, out of rotation"));
+        }
+    }
+
+    // ---------- Helpers ----------
+
+    /** True when the endpoint refused the connection, so the request never reached a model. */
+    private static boolean isRefused(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException) return true;
+        }
+        return false;
+    }
+
+    private static String join(CompletableFuture<String> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof TimeoutException) throw new IOException("LLM call exceeded deadline of " + DEADLINE_MS + " ms", cause);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.example.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ollama-compatible /api/chat stand-in for runs without a model.
+ * - record: answers from disk when it can, otherwise asks the real model and saves the answer.
+ * - replay: answers from disk only; an unknown prompt gets an Ollama-style error.
+ * Recordings are keyed by a hash of the model, the messages (whitespace collapsed) and the output
+ * format, so streamed and blocking calls share them. Streamed calls get the answer back in chunks.
+ * Latency (fixed, jitter or as recorded) and failures can be injected to study the framework
+ * at any model speed. Started in-process by LLMClient with -Dfonio.llm.standin=record|replay,
+ * or on its own with main() for other JVMs (-Dfonio.llm.url=http://localhost:11435/api/chat).
+ */
+public class LlmStandIn {
+
+    private static final Trace LOG = Trace.of(LlmStandIn.class);
+
+    // ---------- Config ----------
+    private static final String MODE = System.getProperty("fonio.llm.standin", "off");
+    private static final String DIR = System.getProperty("fonio.standin.dir", ".fonio/llm-recordings");
+    private static final String UPSTREAM = System.getProperty("fonio.llm.url", "http://localhost:11434/api/chat");
+    private static final long LATENCY_MS = Long.getLong("fonio.standin.latencyMs", 0L);
+    private static final long JITTER_MS = Long.getLong("fonio.standin.jitterMs", 0L);
+    private static final boolean RECORDED_LATENCY = Boolean.getBoolean("fonio.standin.recordedLatency");
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("fonio.standin.errorRate", "0"));
+    private static final int STREAM_CHUNK_CHARS = 8; // about two tokens, like Ollama's chunks
+
+    private static LlmStandIn shared;
+
+    private final boolean recording;
+    private final Path dir;
+    private final HttpServer server;
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "fonio-llm-standin");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final AtomicInteger injectedErrors = new AtomicInteger();
+
+    public LlmStandIn(boolean recording, Path dir, int port) throws IOException {
+        this.recording = recording;
+        this.dir = dir;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/api/chat", this::handle);
+        // One thread per request: parallel workers must not queue behind each other
+        server.setExecutor(workers);
+    }
+
+    public static boolean isEnabled() {
+        return "record".equals(MODE) || "replay".equals(MODE);
+    }
+
+    /** The in-process stand-in of -Dfonio.llm.standin, started on first use on a free port. */
+    public static synchronized LlmStandIn shared() {
+        if (shared == null) {
+            try {
+                shared = new LlmStandIn("record".equals(MODE), Paths.get(DIR), 0).start();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot start the LLM stand-in", e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::stop));
+        }
+        return shared;
+    }
+
+    /** Runs the stand-in until killed: -Dfonio.llm.standin=record|replay, -Dfonio.standin.port (11435). */
+    public static void main(String[] args) throws IOException {
+        LlmStandIn standIn = new LlmStandIn(!"replay".equals(MODE), Paths.get(DIR),
+                Integer.getInteger("fonio.standin.port", 11435)).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(standIn::stop));
+    }
+
+    public LlmStandIn start() {
+        server.start();
+        LOG.info(() -> "LLM stand-in (" + (recording ? "record" : "replay") + ", " + dir + ") at " + chatUrl());
+        return this;
+    }
+
+    public String chatUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/api/chat";
+    }
+
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        LOG.info(() -> "LLM stand-in: " + hits + " replayed, " + misses + " missing, " + recorded
+                + " recorded, " + injectedErrors + " injected errors");
+    }
+
+    // ---------- Requests ----------
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "method not allowed");
+                return;
+            }
+            JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            String key = key(request);
+            Recording answer = load(key);
+            boolean fresh = false;
+            if (answer != null) {
+                hits.incrementAndGet();
+            } else if (recording) {
+                answer = record(key, request);
+                fresh = true;
+            } else {
+                misses.incrementAndGet();
+                LOG.warn(() -> "LLM stand-in has no recording " + key + " for: " + abbreviate(lastMessage(request)));
+                sendError(exchange, 404, "no recording for prompt " + key);
+                return;
+            }
+
+            // A fresh recording already took the model's time
+            long delay = fresh ? 0 : delayMs(answer);
+            if (ERROR_RATE > 0 && ThreadLocalRandom.current().nextDouble() < ERROR_RATE) {
+                injectedErrors.incrementAndGet();
+                sleep(delay);
+                sendError(exchange, 500, "injected failure");
+                return;
+            }
+            // Ollama streams unless told otherwise
+            if (request.optBoolean("stream", true)) {
+                sendStream(exchange, answer, delay);
+            } else {
+                sleep(delay);
+                send(exchange, 200, "application/json", chunk(answer.model, answer.content, true).toString());
+            }
+        } catch (Exception e) {
+            LOG.warn(() -> "LLM stand-in failed: " + e.getMessage());
+            sendError(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Asks the real model without streaming and saves its answer. */
+    private Recording record(String key, JSONObject request) throws IOException {
+        JSONObject upstreamRequest = new JSONObject(request.toString()).put("stream", false);
+        long start = System.nanoTime();
+        String body = LlmTransport.shared().post(UPSTREAM, upstreamRequest.toString());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        JSONObject response = new JSONObject(body);
+        JSONObject message = response.optJSONObject("message");
+        Recording answer = new Recording(response.optString("model", request.optString("model")),
+                message == null ? "" : message.optString("content"), millis);
+        save(key, request, answer);
+        recorded.incrementAndGet();
+        return answer;
+    }
+
+    /** Total added delay; a streamed answer spreads it over its chunks. */
+    private static long delayMs(Recording answer) {
+        long delay = RECORDED_LATENCY ? answer.latencyMs : LATENCY_MS;
+        if (JITTER_MS > 0) delay += ThreadLocalRandom.current().nextLong(JITTER_MS + 1);
+        return delay;
+    }
+
+    private void sendStream(HttpExchange exchange, Recording answer, long delayMs) throws IOException {
+        List<String> pieces = new ArrayList<>();
+        for (int i = 0; i < answer.content.length(); i += STREAM_CHUNK_CHARS) {
+            pieces.add(answer.content.substring(i, Math.min(answer.content.length(), i + STREAM_CHUNK_CHARS)));
+        }
+        long pause = pieces.isEmpty() ? delayMs : delayMs / pieces.size();
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (String piece : pieces) {
+                sleep(pause);
+                out.write((chunk(answer.model, piece, false) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            if (pieces.isEmpty()) sleep(pause);
+            out.write((chunk(answer.model, "", true) + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The client stops reading once it has a complete locator
+        }
+    }
+
+    private static JSONObject chunk(String model, String content, boolean done) {
+        JSONObject chunk = new JSONObject()
+                .put("model", model)
+                .put("created_at", Instant.now().toString())
+                .put("message", new JSONObject().put("role", "assistant").put("content", content))
+                .put("done", done);
+        if (done) chunk.put("done_reason", "stop");
+        return chunk;
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            send(exchange, status, "application/json", new JSONObject().put("error", message).toString());
+        } catch (IOException e) {
+            // Client already gone
+        }
+    }
+
+    // ---------- Recordings ----------
+
+    private static final class Recording {
+        final String model;
+        final String content;
+        final long latencyMs;
+
+        Recording(String model, String content, long latencyMs) {
+            this.model = model;
+            this.content = content;
+            this.latencyMs = latencyMs;
+        }
+    }
+
+    /**
+     * SHA-256 over the model, each message's role and whitespace-collapsed content and the
+     * format schema with sorted keys. Streaming and sampling options are not part of it.
+     */
+    static String key(JSONObject request) {
+        StringBuilder canonical = new StringBuilder(request.optString("model")).append('\n');
+        JSONArray messages = request.optJSONArray("messages");
+        for (int i = 0; messages != null && i < messages.length(); i++) {
+            JSONObject message = messages.getJSONObject(i);
+            canonical.append(message.optString("role")).append(": ")
+                    .append(message.optString("content").trim().replaceAll("\\s+", " ")).append('\n');
+        }
+        if (request.has("format")) canonical.append(canonical(request.get("format")));
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) hex.append(String.format("%02x", hash[i]));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** JSON text with object keys sorted, so equal schemas hash alike. */
+    private static String canonical(Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            StringBuilder sb = new StringBuilder("{");
+            for (String name : new TreeSet<>(object.keySet())) {
+                if (sb.length() > 1) sb.append(',');
+                sb.append(JSONObject.quote(name)).append(':').append(canonical(object.get(name)));
+            }
+            return sb.append('}').toString();
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(canonical(array.get(i)));
+            }
+            return sb.append(']').toString();
+        }
+        return value instanceof String ? JSONObject.quote((String) value) : String.valueOf(value);
+    }
+
+    private Recording load(String key) {
+        Path file = dir.resolve(key + ".json");
+        if (!Files.exists(file)) return null;
+        try {
+            JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            return new Recording(json.optString("model"), json.getString("content"), json.optLong("latencyMs"));
+        } catch (Exception e) {
+            LOG.warn(() -> "Ignoring unreadable recording " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** The request is kept next to the answer, for review and for re-recording. */
+    private void save(String key, JSONObject request, Recording answer) throws IOException {
+        JSONObject json = new JSONObject()
+                .put("model", answer.model)
+                .put("content", answer.content)
+                .put("latencyMs", answer.latencyMs)
+                .put("request", request);
+        Files.createDirectories(dir);
+        Path file = dir.resolve(key + ".json");
+        Path tmp = dir.resolve(key + ".json." + Thread.currentThread().getId() + ".tmp");
+        Files.writeString(tmp, json.toString(2), StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---------- Helpers ----------
+
+    private static String lastMessage(JSONObject request) {
+        JSONArray messages = request.optJSONArray("messages");
+        if (messages == null || messages.length() == 0) return "";
+        return messages.getJSONObject(messages.length() - 1).optString("content");
+    }
+
+    private static String abbreviate(String text) {
+        String flat = text.replaceAll("\\s+", " ").trim();
+        return flat.length() <= 160 ? flat : "..." + flat.substring(flat.length() - 160);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.utils;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+/**
+ * HTTP transport for {@link LLMClient}, shared by all parallel workers.
+ * - Pooled classic client (blocking and streaming calls) and pooled async client.
+ * - Keep-alive, connect/response timeouts and an overall per-call deadline.
+ * A call that exceeds its deadline is aborted, so a hung model cannot stall a scenario.
+ */
+public class LlmTransport implements Closeable {
+
+    // ---------- Config ----------
+    private static final int MAX_CONNECTIONS = Integer.getInteger("fonio.llm.maxConnections", 16);
+    private static final long CONNECT_TIMEOUT_MS = Long.getLong("fonio.llm.connectTimeoutMs", 2_000L);
+    private static final long RESPONSE_TIMEOUT_MS = Long.getLong("fonio.llm.responseTimeoutMs", 60_000L);
+    private static final long DEADLINE_MS = Long.getLong("fonio.llm.deadlineMs", 120_000L);
+    private static final long KEEP_ALIVE_MS = Long.getLong("fonio.llm.keepAliveMs", 30_000L);
+
+    private static final LlmTransport SHARED = new LlmTransport(DEADLINE_MS);
+
+    private final long deadlineMs;
+    private final CloseableHttpClient client;
+    private final CloseableHttpAsyncClient asyncClient;
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fonio-llm-deadline");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Handles one streamed line; a non-null result ends the stream early. */
+    public interface LineHandler<T> {
+        T onLine(String line) throws IOException;
+    }
+
+    public LlmTransport(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setResponseTimeout(Timeout.ofMilliseconds(RESPONSE_TIMEOUT_MS))
+                .setConnectionKeepAlive(TimeValue.ofMilliseconds(KEEP_ALIVE_MS))
+                .build();
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(CONNECT_TIMEOUT_MS))
+                .setSocketTimeout(Timeout.ofMilliseconds(RESPONSE_TIMEOUT_MS))
+                .build();
+
+        PoolingHttpClientConnectionManager pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(MAX_CONNECTIONS)
+                .setMaxConnPerRoute(MAX_CONNECTIONS)
+                .setDefaultConnectionConfig(connectionConfig)
+                .build();
+        this.client = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(requestConfig)
+                .evictIdleConnections(TimeValue.ofMilliseconds(KEEP_ALIVE_MS))
+                .build();
+
+        PoolingAsyncClientConnectionManager asyncPool = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(MAX_CONNECTIONS)
+                .setMaxConnPerRoute(MAX_CONNECTIONS)
+                .setDefaultConnectionConfig(connectionConfig)
+                .build();
+        this.asyncClient = HttpAsyncClients.custom()
+                .setConnectionManager(asyncPool)
+                .setDefaultRequestConfig(requestConfig)
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setSoTimeout(Timeout.ofMilliseconds(RESPONSE_TIMEOUT_MS))
+                        .build())
+                .evictIdleConnections(TimeValue.ofMilliseconds(KEEP_ALIVE_MS))
+                .build();
+        this.asyncClient.start();
+    }
+
+    public static LlmTransport shared() {
+        return SHARED;
+    }
+
+    // ---------- Public API ----------
+
+    /** Blocking POST that returns the whole response body. */
+    public String post(String url, String jsonBody) throws IOException {
+        HttpPost post = jsonPost(url, jsonBody);
+        ScheduledFuture<?> deadline = deadlines.schedule(post::cancel, deadlineMs, TimeUnit.MILLISECONDS);
+        try {
+            return client.execute(post, response -> {
+                String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                if (response.getCode() >= 300) {
+                    throw new IOException("LLM returned HTTP " + response.getCode() + ": " + body);
+                }
+                return body;
+            });
+        } catch (IOException e) {
+            throw post.isCancelled() ? deadlineExceeded(url) : e;
+        } finally {
+            deadline.cancel(false);
+        }
+    }
+
+    /**
+     * POSTs and feeds the response to the handler line by line. Returns the first
+     * non-null handler result, aborting the connection instead of draining it,
+     * or null when the stream ends.
+     */
+    public <T> T stream(String url, String jsonBody, LineHandler<T> handler) throws IOException {
+        HttpPost post = jsonPost(url, jsonBody);
+        ScheduledFuture<?> deadline = deadlines.schedule(post::cancel, deadlineMs, TimeUnit.MILLISECONDS);
+        boolean cutOff = false;
+        ClassicHttpResponse response = null;
+        try {
+            response = client.executeOpen(null, post, null);
+            if (response.getCode() >= 300) {
+                throw new IOException("LLM returned HTTP " + response.getCode());
+            }
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                T result = handler.onLine(line);
+                if (result != null) {
+                    cutOff = true;
+                    post.cancel();
+                    return result;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw post.isCancelled() && !cutOff ? deadlineExceeded(url) : e;
+        } finally {
+            deadline.cancel(false);
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    // A cancelled request has no socket left to drain
+                    if (!post.isCancelled()) throw e;
+                }
+            }
+        }
+    }
+
+    /** Non-blocking POST; the future fails with a TimeoutException after the deadline. */
+    public CompletableFuture<String> postAsync(String url, String jsonBody) {
+        SimpleHttpRequest request = SimpleRequestBuilder.post(url)
+                .setBody(jsonBody, ContentType.APPLICATION_JSON)
+                .build();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Future<SimpleHttpResponse> call = asyncClient.execute(request, new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                if (response.getCode() >= 300) {
+                    result.completeExceptionally(new IOException("LLM returned HTTP " + response.getCode()));
+                } else {
+                    result.complete(response.getBodyText());
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        result.orTimeout(deadlineMs, TimeUnit.MILLISECONDS)
+                .whenComplete((body, error) -> {
+                    if (error != null) call.cancel(true);
+                });
+        return result;
+    }
+
+    /**
+     * Health probe: true if the server answers a GET with any status below 500 within the
+     * connect timeout, e.g. Ollama's "Ollama is running" at the root URL.
+     */
+    public boolean isReachable(String url) {
+        HttpGet get = new HttpGet(url);
+        get.setConfig(RequestConfig.custom()
+                .setResponseTimeout(Timeout.ofMilliseconds(CONNECT_TIMEOUT_MS))
+                .build());
+        try {
+            return client.execute(get, response -> {
+                EntityUtils.consume(response.getEntity());
+                return response.getCode() < 500;
+            });
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        deadlines.shutdownNow();
+        client.close();
+        asyncClient.close();
+    }
+
+    // ---------- Helpers ----------
+
+    private static HttpPost jsonPost(String url, String jsonBody) {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new StringEntity(jsonBody, ContentType.APPLICATION_JSON));
+        return post;
+    }
+
+    private IOException deadlineExceeded(String url) {
+        return new IOException("LLM call to " + url + " exceeded deadline of " + deadlineMs + " ms");
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.utils;
+
+import org.json.JSONObject;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Deterministic locator resolution over the filtered jsoup DOM.
+ * Implements the precedence spelled out in the {@link LLMClient#askForLocator} prompt:
+ * 1) exact attribute match, 2) exact visible text, 3) whole-word text contains,
+ * 4) controlled synonyms for (1)-(3).
+ * Returns a verified locator only for a unique hit; zero or several candidates are left to the LLM.
+ */
+public class LocalLocatorResolver {
+
+    private static final Trace LOG = Trace.of(LocalLocatorResolver.class);
+
+    // ---------- Config ----------
+    private static final Set<String> GENERIC_WORDS = new HashSet<>(Arrays.asList(
+            "button","link","tab","icon","image","img","label","field","box","div","span","section",
+            "panel","menu","card","header","footer","item","option","tile"
+    ));
+
+    // Attributes checked by rule 1, in priority order
+    static final List<String> MATCH_ATTRS = Arrays.asList(
+            "aria-label","title","alt","placeholder","value","data-testid","data-qa","name","id"
+    );
+
+    private static final Set<String> CLICKABLE_ROLES = new HashSet<>(Arrays.asList(
+            "button","link","tab","menuitem","option","checkbox","radio","switch"
+    ));
+
+    private static final List<List<String>> SYNONYMS = Arrays.asList(
+            Arrays.asList("logout","sign out","log off","exit"),
+            Arrays.asList("login","sign in","log on"),
+            Arrays.asList("submit","save","apply","confirm"),
+            Arrays.asList("cancel","close","dismiss"),
+            Arrays.asList("search","find","lookup"),
+            Arrays.asList("settings","preferences","options","configuration"),
+            Arrays.asList("profile","user info","account settings"),
+            Arrays.asList("start","begin","get started","start now","launch"),
+            Arrays.asList("delete","remove","trash"),
+            Arrays.asList("accounts","my accounts","customer accounts","account list"),
+            Arrays.asList("home","dashboard","start page")
+    );
+
+    // XPath 1.0 translate() tables; Java normalization below mirrors them exactly
+    private static final String XPATH_UPPER = "ABCDEFGHIJKLMNOPQRSTUVWXYZ.,:;!?()";
+    private static final String XPATH_LOWER = "abcdefghijklmnopqrstuvwxyz        ";
+    private static final String XPATH_TEXT =
+            "normalize-space(translate(string(.),'" + XPATH_UPPER + "','" + XPATH_LOWER + "'))";
+
+    // ---------- Public API ----------
+
+    /**
+     * Resolves a description to a {"primary", "fallback"} JSON string,
+     * or null when the DOM does not contain exactly one match.
+     */
+    public static String resolve(Document doc, String description) {
+        if (doc == null || description == null || description.isBlank()) return null;
+
+        String target = targetLabel(description);
+        if (target.isEmpty()) return null;
+
+        Candidate hit = resolveLabel(doc, target);
+        if (hit == null || hit.ambiguous) {
+            if (hit == null) {
+                // Rule 4: synonyms only when the label itself matched nothing at all
+                for (String synonym : synonymsOf(target)) {
+                    hit = resolveLabel(doc, synonym);
+                    if (hit != null) break;
+                }
+            }
+            if (hit == null || hit.ambiguous) {
+                String outcome = hit == null ? "no" : "ambiguous";
+                LOG.debug(() -> "Local resolver: " + outcome + " match for '" + description + "', escalating to LLM");
+                return null;
+            }
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("primary", hit.primary);
+        json.put("fallback", hit.fallback == null ? "" : hit.fallback);
+        String rule = hit.rule;
+        LOG.debug(() -> "Local resolver matched '" + description + "' by " + rule + ": " + json);
+        return json.toString();
+    }
+
+    // ---------- Rules ----------
+
+    /** Applies rules 1-3 for a single label; stops at the first rule with any candidate. */
+    private static Candidate resolveLabel(Document doc, String label) {
+        Candidate c = byExactAttribute(doc, label);
+        if (c != null) return c;
+        c = byExactText(doc, label);
+        if (c != null) return c;
+        return byWholeWordText(doc, label);
+    }
+
+    /** Rule 1: an identifying attribute of an actionable element equals the label (case-insensitive). */
+    private static Candidate byExactAttribute(Document doc, String label) {
+        for (String attr : MATCH_ATTRS) {
+            Set<Element> targets = new LinkedHashSet<>();
+            Map<Element, Element> source = new IdentityHashMap<>();
+            for (Element el : doc.getElementsByAttribute(attr)) {
+                if (!normalize(el.attr(attr)).equals(label)) continue;
+                Element clickable = clickableSelfOrAncestor(el);
+                if (clickable == null) continue;
+                targets.add(clickable);
+                source.putIfAbsent(clickable, el);
+            }
+            if (targets.isEmpty()) continue;
+            if (targets.size() > 1) return Candidate.ambiguous("attribute " + attr);
+
+            Element target = targets.iterator().next();
+            Element matched = source.get(target);
+            String tag = target.tagName();
+            String value = matched.attr(attr);
+            if (target == matched) {
+                String xpath = "//" + tag + "[@" + attr + "=" + xpathLiteral(value) + "]";
+                int xpathCount = countTags(doc, tag, el -> el.attr(attr).equals(value));
+                return verified(doc, cssFor(target, attr, value), xpath, xpathCount, "attribute " + attr);
+            }
+            // Label sits on a child (e.g. <a><span aria-label="Start"></a>): target the clickable wrapper
+            String xpath = "//" + tag + "[.//*[@" + attr + "=" + xpathLiteral(value) + "]]";
+            int xpathCount = countTags(doc, tag, el -> !el.getElementsByAttributeValue(attr, value).isEmpty());
+            return verified(doc, idCss(target), xpath, xpathCount, "attribute " + attr);
+        }
+        return null;
+    }
+
+    /** Rule 2: visible text equals the label; clickables win, then label association. */
+    private static Candidate byExactText(Document doc, String label) {
+        List<Element> clickables = new ArrayList<>();
+        for (Element el : clickableElements(doc)) {
+            if (normalize(el.wholeText()).equals(label)) clickables.add(el);
+        }
+        if (!clickables.isEmpty()) {
+            if (clickables.size() > 1) return Candidate.ambiguous("exact text");
+            Element el = clickables.get(0);
+            String xpath = "//" + el.tagName() + "[" + XPATH_TEXT + "=" + xpathLiteral(label) + "]";
+            int xpathCount = countTags(doc, el.tagName(), e -> normalize(e.wholeText()).equals(label));
+            return verified(doc, idCss(el), xpath, xpathCount, "exact text");
+        }
+
+        // Form fields: <label for="x">Label</label> -> #x
+        List<Element> labelled = new ArrayList<>();
+        for (Element lbl : doc.getElementsByTag("label")) {
+            if (!normalize(lbl.wholeText()).equals(label)) continue;
+            Element input = lbl.hasAttr("for") ? doc.getElementById(lbl.attr("for")) : lbl.selectFirst("input, select, textarea");
+            if (input != null && isClickable(input)) labelled.add(input);
+        }
+        if (labelled.isEmpty()) return null;
+        if (labelled.size() > 1) return Candidate.ambiguous("label");
+        Element input = labelled.get(0);
+        String css = idCss(input);
+        if (css == null && input.hasAttr("name")) css = cssFor(input, "name", input.attr("name"));
+        return css == null ? Candidate.ambiguous("label") : verified(doc, css, null, 0, "label");
+    }
+
+    /** Rule 3: visible text of a clickable contains the label as a whole word. */
+    private static Candidate byWholeWordText(Document doc, String label) {
+        String padded = " " + label + " ";
+        List<Element> matches = new ArrayList<>();
+        for (Element el : clickableElements(doc)) {
+            if ((" " + normalize(el.wholeText()) + " ").contains(padded)) matches.add(el);
+        }
+        if (matches.isEmpty()) return null;
+        if (matches.size() > 1) return Candidate.ambiguous("whole-word text");
+        Element el = matches.get(0);
+        String xpath = "//" + el.tagName() + "[contains(concat(' '," + XPATH_TEXT + ",' ')," + xpathLiteral(padded) + ")]";
+        int xpathCount = countTags(doc, el.tagName(), e -> (" " + normalize(e.wholeText()) + " ").contains(padded));
+        return verified(doc, idCss(el), xpath, xpathCount, "whole-word text");
+    }
+
+    /**
+     * Keeps the candidate only if its locators match exactly one element.
+     * CSS is checked with jsoup; XPath counts come from the Java mirror of the
+     * expression, which avoids a W3C DOM conversion per check.
+     */
+    private static Candidate verified(Document doc, String css, String xpath, int xpathCount, String rule) {
+        boolean cssUnique = css != null && countCss(doc, css) == 1;
+        boolean xpathUnique = xpath != null && xpathCount == 1;
+        if (cssUnique) return new Candidate(css, xpathUnique ? xpath : null, rule);
+        if (xpathUnique) return new Candidate(xpath, null, rule);
+        return Candidate.ambiguous(rule);
+    }
+
+    private static int countCss(Document doc, String css) {
+        try {
+            return doc.select(css).size();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static int countTags(Document doc, String tag, Predicate<Element> condition) {
+        int count = 0;
+        for (Element el : doc.getElementsByTag(tag)) {
+            if (condition.test(el)) count++;
+        }
+        return count;
+    }
+
+    // ---------- Helpers ----------
+
+    /** Lowercases and strips the generic UI words ("Start Button" -> "start"). */
+    static String targetLabel(String description) {
+        StringBuilder sb = new StringBuilder();
+        for (String token : normalize(description).split(" ")) {
+            if (token.isEmpty() || GENERIC_WORDS.contains(token)) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(token);
+        }
+        return sb.length() > 0 ? sb.toString() : normalize(description);
+    }
+
+    /** Java mirror of {@link #XPATH_TEXT}. */
+    static String normalize(String text) {
+        if (text == null) return "";
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            int idx = XPATH_UPPER.indexOf(ch);
+            sb.append(idx >= 0 ? XPATH_LOWER.charAt(idx) : ch);
+        }
+        return sb.toString().replaceAll("[ \\t\\r\\n]+", " ").trim();
+    }
+
+    private static List<String> synonymsOf(String label) {
+        for (List<String> group : SYNONYMS) {
+            if (group.contains(label)) {
+                List<String> others = new ArrayList<>(group);
+                others.remove(label);
+                return others;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static Elements clickableElements(Document doc) {
+        Elements out = new Elements();
+        for (Element el : doc.body().getAllElements()) {
+            if (isClickable(el)) out.add(el);
+        }
+        return out;
+    }
+
+    static boolean isClickable(Element el) {
+        String tag = el.tagName();
+        if ("a".equals(tag) || "button".equals(tag)) return true;
+        if ("input".equals(tag) || "select".equals(tag) || "textarea".equals(tag)) return true;
+        return CLICKABLE_ROLES.contains(el.attr("role").toLowerCase(Locale.ROOT));
+    }
+
+    /** The element itself or its nearest clickable ancestor (up to 3 levels), else null. */
+    private static Element clickableSelfOrAncestor(Element el) {
+        Element cur = el;
+        for (int i = 0; i < 4 && cur != null; i++) {
+            if (isClickable(cur)) return cur;
+            cur = cur.parent();
+        }
+        return null;
+    }
+
+    private static String idCss(Element el) {
+        String id = el.id();
+        if (id.isEmpty()) return null;
+        return id.matches("[A-Za-z_][A-Za-z0-9_-]*") ? "#" + id : null;
+    }
+
+    private static String cssFor(Element el, String attr, String value) {
+        if ("id".equals(attr)) {
+            String css = idCss(el);
+            if (css != null) return css;
+        }
+        if (!value.contains("'")) return el.tagName() + "[" + attr + "='" + value + "']";
+        if (!value.contains("\"")) return el.tagName() + "[" + attr + "=\"" + value + "\"]";
+        return null;
+    }
+
+    private static String xpathLiteral(String value) {
+        if (!value.contains("'")) return "'" + value + "'";
+        if (!value.contains("\"")) return "\"" + value + "\"";
+        return "concat('" + value.replace("'", "',\"'\",'") + "')";
+    }
+
+    private static class Candidate {
+        final String primary;
+        final String fallback;
+        final String rule;
+        final boolean ambiguous;
+
+        Candidate(String primary, String fallback, String rule) {
+            this.primary = primary;
+            this.fallback = fallback;
+            this.rule = rule;
+            this.ambiguous = false;
+        }
+
+        private Candidate(String rule) {
+            this.primary = null;
+            this.fallback = null;
+            this.rule = rule;
+            this.ambiguous = true;
+        }
+
+        static Candidate ambiguous(String rule) {
+            return new Candidate(rule);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.utils;
+
+import org.json.JSONObject;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent on-disk locator store that sits in front of {@link LLMClient#askForLocator}.
+ * - Key = normalized URL pattern + structural fingerprint of the filtered DOM + description.
+ * - Entries unused for longer than the TTL are dropped on load.
+ * - Callers re-check hits against the live page and {@link #evict} stale entries.
+ * - Changes stay in memory and are written by {@link #flush}, which runs at shutdown.
+ */
+public class LocatorCache {
+
+    private static final Trace LOG = Trace.of(LocatorCache.class);
+
+    // ---------- Config ----------
+    private static final String CACHE_FILE = System.getProperty("fonio.cache.file", ".fonio/locator-cache.json");
+    private static final long TTL_MILLIS = Long.getLong("fonio.cache.ttlDays", 30L) * 24 * 60 * 60 * 1000;
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("fonio.cache.enabled", "true"));
+
+    // Counter or random part of a generated id/name, e.g. 37 in input-37
+    private static final Pattern GENERATED_PART = Pattern.compile("(?i)[0-9a-f]*[0-9][0-9a-f]*");
+
+    private final Path file;
+    private final Map<String, JSONObject> entries = new LinkedHashMap<>();
+    private boolean dirty;
+
+    public LocatorCache() {
+        this(Paths.get(CACHE_FILE));
+    }
+
+    public LocatorCache(Path file) {
+        this.file = file;
+        load();
+        // Written once at shutdown, not on every lookup, put or evict
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // ---------- Public API ----------
+
+    /** Builds the cache key for a page state and an element description. */
+    public static String key(String url, String filteredHtml, String description) {
+        return keyFor(url, fingerprint(filteredHtml), description);
+    }
+
+    /** Same as {@link #key} for a precomputed {@link #fingerprint}. */
+    public static String keyFor(String url, String fingerprint, String description) {
+        return normalizeUrl(url) + "|" + fingerprint + "|" + normalizeDescription(description);
+    }
+
+    /** Returns the cached locator JSON, or null on a miss. */
+    public synchronized String get(String key) {
+        JSONObject entry = entries.get(key);
+        if (entry == null) return null;
+        entry.put("hits", entry.optInt("hits") + 1);
+        entry.put("lastUsed", System.currentTimeMillis());
+        dirty = true;
+        return entry.getString("locator");
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized void put(String key, String locatorJson) {
+        JSONObject entry = new JSONObject();
+        entry.put("locator", locatorJson);
+        entry.put("hits", 0);
+        entry.put("lastUsed", System.currentTimeMillis());
+        entries.put(key, entry);
+        dirty = true;
+    }
+
+    /** Drops an entry whose locator no longer matches the live page. */
+    public synchronized void evict(String key) {
+        if (entries.remove(key) != null) {
+            dirty = true;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void flush() {
+        if (dirty) save();
+    }
+
+    // ---------- Keys ----------
+
+    /**
+     * Reduces a URL to a pattern: lowercase host, path without query/fragment,
+     * numeric and record-id-like segments replaced by '*'.
+     */
+    static String normalizeUrl(String url) {
+        if (url == null || url.isBlank()) return "";
+        try {
+            URI uri = URI.create(url.trim());
+            String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+            String path = uri.getPath() == null ? "" : uri.getPath();
+            StringBuilder sb = new StringBuilder(host);
+            for (String segment : path.split("/")) {
+                if (segment.isEmpty()) continue;
+                sb.append('/');
+                sb.append(isVariableSegment(segment) ? "*" : segment.toLowerCase(Locale.ROOT));
+            }
+            return sb.toString();
+        } catch (IllegalArgumentException e) {
+            return url.trim().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static boolean isVariableSegment(String segment) {
+        if (segment.matches("\\d+")) return true;
+        // Salesforce record ids (15/18 chars) and UUIDs
+        if (segment.matches("[a-zA-Z0-9]{15}|[a-zA-Z0-9]{18}") && segment.matches(".*\\d.*")) return true;
+        return segment.matches("(?i)[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    }
+
+    public static String normalizeDescription(String description) {
+        return description == null ? "" : description.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Structural fingerprint of filtered HTML: tag names and identifying attributes
+     * in document order. Text and values are ignored so content changes do not
+     * invalidate the cache. Counters in ids and names (input-37, globalId_12, hex ids)
+     * are masked: Lightning and other frameworks renumber them on every load.
+     */
+    public static String fingerprint(String filteredHtml) {
+        if (filteredHtml == null || filteredHtml.isEmpty()) return "empty";
+        return fingerprint(Jsoup.parse(filteredHtml));
+    }
+
+    /** Same as {@link #fingerprint(String)} for an already parsed filtered tree. */
+    public static String fingerprint(Document doc) {
+        StringBuilder sb = new StringBuilder();
+        for (Element el : doc.body().getAllElements()) {
+            sb.append(el.tagName());
+            appendStableAttr(sb, el, "id");
+            appendStableAttr(sb, el, "name");
+            appendAttr(sb, el, "type");
+            appendAttr(sb, el, "role");
+            sb.append(';');
+        }
+        return sha256(sb.toString()).substring(0, 16);
+    }
+
+    private static void appendAttr(StringBuilder sb, Element el, String key) {
+        if (el.hasAttr(key)) sb.append('[').append(key).append('=').append(el.attr(key)).append(']');
+    }
+
+    /** Like {@link #appendAttr} with every run of hex digits that contains a digit replaced by #. */
+    private static void appendStableAttr(StringBuilder sb, Element el, String key) {
+        if (el.hasAttr(key)) {
+            sb.append('[').append(key).append('=').append(GENERATED_PART.matcher(el.attr(key)).replaceAll("#")).append(']');
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(text.hashCode());
+        }
+    }
+
+    // ---------- Persistence ----------
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        try {
+            JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            long now = System.currentTimeMillis();
+            for (String key : json.keySet()) {
+                JSONObject entry = json.getJSONObject(key);
+                if (now - entry.optLong("lastUsed") <= TTL_MILLIS) {
+                    entries.put(key, entry);
+                }
+            }
+            LOG.info(() -> "Loaded " + entries.size() + " cached locators from " + file);
+        } catch (Exception e) {
+            LOG.warn(() -> "Ignoring unreadable locator cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, new JSONObject(entries).toString(2), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            LOG.warn(() -> "Failed to save locator cache: " + e.getMessage());
+        }
+    }
+}
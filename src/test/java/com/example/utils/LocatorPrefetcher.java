@@ -0,0 +1,82 @@
+package com.example.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Resolves locators for upcoming steps concurrently against one DOM snapshot,
+ * batched into as few model calls as the resolver allows.
+ * A step takes its result only if the page still has the same structural
+ * fingerprint; otherwise the prefetched answer is dropped and the step resolves afresh.
+ * One instance per scenario.
+ */
+public class LocatorPrefetcher {
+
+    private static final Trace LOG = Trace.of(LocatorPrefetcher.class);
+
+    private final Map<String, Prefetched> pending = new ConcurrentHashMap<>();
+
+    private static class Prefetched {
+        final String fingerprint;
+        final CompletableFuture<String> locator;
+
+        Prefetched(String fingerprint, CompletableFuture<String> locator) {
+            this.fingerprint = fingerprint;
+            this.locator = locator;
+        }
+    }
+
+    /**
+     * Starts resolution for the descriptions that are not already in flight for this page,
+     * handing them to the resolver together so they can share model calls.
+     * The resolver leaves out descriptions that need no prefetch (cached, resolved locally).
+     */
+    public void prefetch(DomSnapshot dom, Collection<String> descriptions,
+                         BiFunction<DomSnapshot, List<String>, Map<String, CompletableFuture<String>>> resolver) {
+        String fingerprint = dom.fingerprint();
+        List<String> missing = new ArrayList<>();
+        for (String description : descriptions) {
+            Prefetched existing = pending.get(LocatorCache.normalizeDescription(description));
+            if (existing == null || !existing.fingerprint.equals(fingerprint)) missing.add(description);
+        }
+        if (missing.isEmpty()) return;
+
+        resolver.apply(dom, missing).forEach((description, locator) -> {
+            pending.put(LocatorCache.normalizeDescription(description), new Prefetched(fingerprint, locator));
+            LOG.debug(() -> "Prefetching locator for '" + description + "'");
+        });
+    }
+
+    /**
+     * Returns the prefetched locator for the description if it was resolved against
+     * a page with the given fingerprint, waiting for it if still in flight; otherwise null.
+     */
+    public String take(String description, String fingerprint) {
+        Prefetched prefetched = pending.remove(LocatorCache.normalizeDescription(description));
+        if (prefetched == null) return null;
+        if (!prefetched.fingerprint.equals(fingerprint)) {
+            LOG.debug(() -> "Discarding prefetched locator for '" + description + "': page changed");
+            prefetched.locator.cancel(true);
+            return null;
+        }
+        try {
+            return prefetched.locator.join();
+        } catch (Exception e) {
+            LOG.warn(() -> "Prefetch for '" + description + "' failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Cancels everything still in flight; called at scenario end. */
+    public void clear() {
+        for (Prefetched prefetched : pending.values()) {
+            prefetched.locator.cancel(true);
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.utils;
+
+import org.json.JSONObject;
+import org.openqa.selenium.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the element for a locator response ({"primary", "fallback"} JSON or a single locator)
+ * by evaluating all of its locators together in the page.
+ * - One script call per poll reports every locator's match count and actionability.
+ * - A unique match wins at once, primary before fallback; a wrong primary costs nothing.
+ * - Only rendered matches count, so hidden copies of an element (common on Lightning) do not make
+ *   a locator ambiguous here when LocatorValidator, which sees the filtered snapshot, found it unique.
+ * - One deadline (-Dfonio.wait.timeoutMs) covers the whole lookup.
+ * Locator strings: id=, name=, css=, xpath= prefixes, XPath if they start with / or (, else CSS.
+ */
+public class LocatorProbe {
+
+    private static final Trace LOG = Trace.of(LocatorProbe.class);
+
+    private static final String SCRIPT = PageWaits.trackerScript() + "\n"
+            + BrowserDomExtractor.loadScript("/js/probe-locators.js");
+
+    private final WebDriver driver;
+
+    public LocatorProbe(WebDriver driver) {
+        this.driver = driver;
+    }
+
+    /** Primary and fallback of the response, as [kind, expression] pairs the probe script evaluates. */
+    static List<List<String>> candidates(String locatorResponse) {
+        if (locatorResponse == null || locatorResponse.trim().isEmpty()) {
+            throw new IllegalArgumentException("Locator response is null or empty");
+        }
+        String trimmed = locatorResponse.trim();
+        List<List<String>> candidates = new ArrayList<>();
+        JSONObject json = null;
+        try {
+            json = new JSONObject(trimmed);
+        } catch (Exception e) {
+            // Not JSON: a single locator string
+        }
+        if (json == null) {
+            candidates.add(candidate(trimmed));
+        } else {
+            candidates.add(candidate(json.getString("primary")));
+            String fallback = json.optString("fallback", "");
+            if (!fallback.isBlank()) candidates.add(candidate(fallback));
+        }
+        return candidates;
+    }
+
+    /** True if the primary or the fallback matches exactly one rendered element right now. */
+    public boolean matchesUniquely(String locatorResponse) {
+        try (StepMetrics.Timer t = StepMetrics.start("live_check")) {
+            for (Map<?, ?> result : probe(candidates(locatorResponse), false)) {
+                if (count(result) == 1) return true;
+            }
+            return false;
+        }
+    }
+
+    /** The element of {@link #find}. */
+    public WebElement actionable(String locatorResponse) {
+        return find(locatorResponse).element;
+    }
+
+    /**
+     * Returns as soon as the primary or, failing that, the fallback matches exactly one actionable
+     * element. At the deadline a present but not actionable or ambiguous match is returned anyway
+     * (not {@link Match#unique}) so the action itself decides; NoSuchElementException if nothing matched.
+     */
+    public Match find(String locatorResponse) {
+        try (StepMetrics.Timer t = StepMetrics.start("find_element")) {
+            return awaitMatch(locatorResponse);
+        }
+    }
+
+    private Match awaitMatch(String locatorResponse) {
+        List<List<String>> candidates = candidates(locatorResponse);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(PageWaits.TIMEOUT_MS);
+        Object[] lastRects = new Object[candidates.size()];
+        while (true) {
+            WebElement unique = null;
+            int uniqueIndex = -1;
+            WebElement any = null;
+            int anyIndex = -1;
+            List<Map<?, ?>> results;
+            try {
+                results = probe(candidates, true);
+            } catch (WebDriverException e) {
+                // Page in transition; probe again
+                results = new ArrayList<>();
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Map<?, ?> result = results.get(i);
+                Object rect = result.get("rect");
+                Object previous = lastRects[i];
+                lastRects[i] = rect;
+                if (any == null && number(result, "total") > 0) {
+                    any = (WebElement) result.get("element");
+                    anyIndex = i;
+                }
+                if (unique != null || count(result) != 1) continue;
+                unique = (WebElement) result.get("element");
+                uniqueIndex = i;
+                // Same position on two polls: not animating
+                if (rect != null && rect.equals(previous)) {
+                    Match match = new Match(unique, i > 0, true, elapsedMs(start));
+                    List<String> matched = candidates.get(i);
+                    LOG.debug(() -> "Element for " + matched + " actionable after " + match.millis + " ms");
+                    return match;
+                }
+            }
+            if (System.nanoTime() >= deadline) {
+                if (unique == null && any == null) {
+                    throw new NoSuchElementException("No element matched " + candidates + " within " + PageWaits.TIMEOUT_MS + " ms");
+                }
+                LOG.debug(() -> "No unique actionable match for " + candidates + " after " + PageWaits.TIMEOUT_MS
+                        + " ms, using the first match");
+                return unique != null
+                        ? new Match(unique, uniqueIndex > 0, false, elapsedMs(start))
+                        : new Match(any, anyIndex > 0, false, elapsedMs(start));
+            }
+            PageWaits.pause(PageWaits.POLL_MS, deadline);
+        }
+    }
+
+    /** Outcome of {@link #find}. */
+    public static final class Match {
+        public final WebElement element;
+        /** The fallback matched, not the primary. */
+        public final boolean fallback;
+        /** Exactly one actionable element matched before the deadline. */
+        public final boolean unique;
+        public final long millis;
+
+        Match(WebElement element, boolean fallback, boolean unique, long millis) {
+            this.element = element;
+            this.fallback = fallback;
+            this.unique = unique;
+            this.millis = millis;
+        }
+    }
+
+    // ---------- Helpers ----------
+
+    private List<Map<?, ?>> probe(List<List<String>> candidates, boolean withRects) {
+        Object result = JfrEvents.driverCommand("probe locators", candidates,
+                () -> ((JavascriptExecutor) driver).executeScript(SCRIPT, candidates, withRects));
+        List<Map<?, ?>> results = new ArrayList<>();
+        if (result instanceof List) {
+            for (Object entry : (List<?>) result) {
+                results.add(entry instanceof Map ? (Map<?, ?>) entry : Map.of());
+            }
+        }
+        return results;
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /** Rendered matches of a probe result; hidden copies of the element are not counted. */
+    private static long count(Map<?, ?> result) {
+        return number(result, "count");
+    }
+
+    private static long number(Map<?, ?> result, String key) {
+        Object value = result.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    private static List<String> candidate(String locator) {
+        if (locator == null || locator.trim().isEmpty()) {
+            throw new IllegalArgumentException("Locator string is null or empty");
+        }
+        String trimmed = locator.trim();
+        String lower = trimmed.toLowerCase();
+
+        // Selenium-style prefixes
+        if (lower.startsWith("id=")) return css("[id=" + quote(trimmed.substring(3).trim()) + "]");
+        if (lower.startsWith("name=")) return css("[name=" + quote(trimmed.substring(5).trim()) + "]");
+        if (lower.startsWith("css=")) return css(trimmed.substring(4).trim());
+        if (lower.startsWith("xpath=")) return xpath(trimmed.substring(6).trim());
+
+        // Auto-detect XPath
+        if (trimmed.startsWith("/") || trimmed.startsWith("(")) return xpath(trimmed);
+        return css(trimmed);
+    }
+
+    private static List<String> css(String selector) {
+        return Arrays.asList("css", selector);
+    }
+
+    private static List<String> xpath(String expression) {
+        return Arrays.asList("xpath", expression);
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
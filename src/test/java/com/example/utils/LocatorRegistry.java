@@ -0,0 +1,224 @@
+package com.example.utils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Learns across runs which locators work for each page and element.
+ * - Key = normalized URL pattern + description. Unlike {@link LocatorCache} the DOM fingerprint is
+ *   not part of it, so a proven locator survives content and layout changes.
+ * - Every action records its locator's outcome (success, fallback used, not found) and latency.
+ * - After -Dfonio.registry.promoteAfter consecutive working uses a locator is promoted: it is tried
+ *   first, with one live check and no model call. -Dfonio.registry.demoteAfter consecutive failures
+ *   demote it, and only then is the element resolved again.
+ * Written to -Dfonio.registry.file on shutdown.
+ */
+public class LocatorRegistry {
+
+    private static final Trace LOG = Trace.of(LocatorRegistry.class);
+
+    public enum Outcome { SUCCESS, FALLBACK, NOT_FOUND }
+
+    // ---------- Config ----------
+    private static final String REGISTRY_FILE = System.getProperty("fonio.registry.file", ".fonio/locator-registry.json");
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("fonio.registry.enabled", "true"));
+    private static final int PROMOTE_AFTER = Integer.getInteger("fonio.registry.promoteAfter", 3);
+    private static final int DEMOTE_AFTER = Integer.getInteger("fonio.registry.demoteAfter", 2);
+    private static final long TTL_MILLIS = Long.getLong("fonio.registry.ttlDays", 30L) * 24 * 60 * 60 * 1000;
+    private static final int MAX_LOCATORS = 5; // kept per page and description
+
+    private final Path file;
+    private final Map<String, List<Stats>> entries = new LinkedHashMap<>();
+    private boolean dirty;
+
+    public LocatorRegistry() {
+        this(Paths.get(REGISTRY_FILE));
+    }
+
+    public LocatorRegistry(Path file) {
+        this.file = file;
+        load();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // ---------- Public API ----------
+
+    /** The promoted locator for the page and element with the most working uses, or null. */
+    public synchronized String promoted(String url, String description) {
+        Stats best = null;
+        for (Stats stats : entries.getOrDefault(key(url, description), Collections.emptyList())) {
+            if (stats.promoted && (best == null || stats.working() > best.working()
+                    || stats.working() == best.working() && stats.averageMs() < best.averageMs())) {
+                best = stats;
+            }
+        }
+        return best == null ? null : best.locator;
+    }
+
+    /** Records how the locator did for the element on this page; promotes or demotes it. */
+    public synchronized void record(String url, String description, String locator, Outcome outcome, long millis) {
+        List<Stats> locators = entries.computeIfAbsent(key(url, description), k -> new ArrayList<>());
+        Stats stats = null;
+        for (Stats candidate : locators) {
+            if (candidate.locator.equals(locator)) stats = candidate;
+        }
+        if (stats == null) {
+            if (locators.size() >= MAX_LOCATORS) {
+                locators.remove(Collections.min(locators, Comparator.comparingDouble(Stats::score)));
+            }
+            stats = new Stats(locator);
+            locators.add(stats);
+        }
+
+        stats.uses++;
+        stats.totalMs += millis;
+        stats.lastUsed = System.currentTimeMillis();
+        if (outcome == Outcome.NOT_FOUND) {
+            stats.notFound++;
+            stats.streak = 0;
+            stats.failures++;
+            if (stats.promoted && stats.failures >= DEMOTE_AFTER) {
+                stats.promoted = false;
+                int failures = stats.failures;
+                LOG.debug(() -> "Demoted locator for '" + description + "' after " + failures + " failures: " + locator);
+            }
+        } else {
+            if (outcome == Outcome.FALLBACK) stats.fallbacks++;
+            else stats.successes++;
+            stats.streak++;
+            stats.failures = 0;
+            if (!stats.promoted && stats.streak >= PROMOTE_AFTER) {
+                stats.promoted = true;
+                int streak = stats.streak;
+                LOG.debug(() -> "Promoted locator for '" + description + "' after " + streak + " working uses: " + locator);
+            }
+        }
+        dirty = true;
+    }
+
+    public synchronized void flush() {
+        if (dirty) save();
+    }
+
+    static String key(String url, String description) {
+        return LocatorCache.normalizeUrl(url) + "|" + LocatorCache.normalizeDescription(description);
+    }
+
+    // ---------- Stats ----------
+
+    private static final class Stats {
+        final String locator;
+        int successes;
+        int fallbacks;
+        int notFound;
+        int streak;   // consecutive working uses
+        int failures; // consecutive failures
+        int uses;
+        long totalMs;
+        long lastUsed;
+        boolean promoted;
+
+        Stats(String locator) {
+            this.locator = locator;
+        }
+
+        int working() {
+            return successes + fallbacks;
+        }
+
+        double averageMs() {
+            return uses == 0 ? 0 : (double) totalMs / uses;
+        }
+
+        /** Eviction order: promoted first, then by working share of uses. */
+        double score() {
+            return (promoted ? 1 : 0) + (uses == 0 ? 0 : (double) working() / uses) / 2;
+        }
+
+        JSONObject toJson() {
+            return new JSONObject()
+                    .put("locator", locator)
+                    .put("successes", successes)
+                    .put("fallbacks", fallbacks)
+                    .put("notFound", notFound)
+                    .put("streak", streak)
+                    .put("failures", failures)
+                    .put("uses", uses)
+                    .put("totalMs", totalMs)
+                    .put("lastUsed", lastUsed)
+                    .put("promoted", promoted);
+        }
+
+        static Stats fromJson(JSONObject json) {
+            Stats stats = new Stats(json.getString("locator"));
+            stats.successes = json.optInt("successes");
+            stats.fallbacks = json.optInt("fallbacks");
+            stats.notFound = json.optInt("notFound");
+            stats.streak = json.optInt("streak");
+            stats.failures = json.optInt("failures");
+            stats.uses = json.optInt("uses");
+            stats.totalMs = json.optLong("totalMs");
+            stats.lastUsed = json.optLong("lastUsed");
+            stats.promoted = json.optBoolean("promoted");
+            return stats;
+        }
+    }
+
+    // ---------- Persistence ----------
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        try {
+            JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            long now = System.currentTimeMillis();
+            int count = 0;
+            for (String key : json.keySet()) {
+                List<Stats> locators = new ArrayList<>();
+                JSONArray array = json.getJSONArray(key);
+                for (int i = 0; i < array.length(); i++) {
+                    Stats stats = Stats.fromJson(array.getJSONObject(i));
+                    if (now - stats.lastUsed <= TTL_MILLIS) locators.add(stats);
+                }
+                if (!locators.isEmpty()) {
+                    entries.put(key, locators);
+                    count += locators.size();
+                }
+            }
+            int loaded = count;
+            LOG.info(() -> "Loaded " + loaded + " locator records for " + entries.size() + " elements from " + file);
+        } catch (Exception e) {
+            LOG.warn(() -> "Ignoring unreadable locator registry " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        try {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, List<Stats>> entry : entries.entrySet()) {
+                JSONArray locators = new JSONArray();
+                for (Stats stats : entry.getValue()) locators.put(stats.toJson());
+                json.put(entry.getKey(), locators);
+            }
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, json.toString(2), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            LOG.warn(() -> "Failed to save locator registry: " + e.getMessage());
+        }
+    }
+}
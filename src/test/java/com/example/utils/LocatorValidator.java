@@ -0,0 +1,166 @@
+package com.example.utils;
+
+import org.json.JSONObject;
+import org.jsoup.helper.W3CDom;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Selector;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks locator responses against the DOM snapshot the model was shown, before any browser call.
+ * - CSS is evaluated with jsoup, XPath with javax.xml over {@link DomSnapshot#w3c()}.
+ * - A response passes when its primary or its fallback matches exactly one element.
+ * - Comma-separated CSS groups are split; a unique part can replace the response without the model.
+ * CSS that jsoup cannot parse (e.g. browser-only pseudo classes) is not judged and passes.
+ * Reads the snapshot's tree: use on the thread that owns the snapshot.
+ */
+public class LocatorValidator {
+
+    private static final int UNCHECKED = -2;
+    private static final int INVALID = -1;
+
+    // XPath objects are not thread-safe
+    private static final ThreadLocal<XPath> XPATH = ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
+
+    private final DomSnapshot dom;
+
+    public LocatorValidator(DomSnapshot dom) {
+        this.dom = dom;
+    }
+
+    /** Null if the response passes; otherwise why each of its locators failed, for the repair prompt. */
+    public String rejection(String locatorResponse) {
+        List<List<String>> candidates;
+        try {
+            candidates = LocatorProbe.candidates(locatorResponse);
+        } catch (Exception e) {
+            return "the answer is not a usable locator (" + e.getMessage() + ")";
+        }
+        List<String> reasons = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            int count = count(candidates.get(i));
+            if (count == 1 || count == UNCHECKED) return null;
+            reasons.add((i == 0 ? "primary " : "fallback ") + describe(candidates.get(i)) + " " + outcome(count));
+        }
+        return String.join("; ", reasons);
+    }
+
+    /**
+     * The one element the response's primary matches, provided its fallback (if any) matches that
+     * same element; otherwise null. Stricter than {@link #rejection}: used to decide whether an
+     * answer from a small model can be trusted without asking a larger one.
+     */
+    public Element agreedMatch(String locatorResponse) {
+        try {
+            List<List<String>> candidates = LocatorProbe.candidates(locatorResponse);
+            List<Element> primary = matches(candidates.get(0));
+            if (primary == null || primary.size() != 1) return null;
+            for (List<String> fallback : candidates.subList(1, candidates.size())) {
+                List<Element> also = matches(fallback);
+                if (also == null || also.size() != 1 || also.get(0) != primary.get(0)) return null;
+            }
+            return primary.get(0);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * A passing response built from the unique parts of the response's comma-separated CSS groups,
+     * or null if there are none.
+     */
+    public String repairLocally(String locatorResponse) {
+        List<String> unique = new ArrayList<>();
+        try {
+            for (List<String> candidate : LocatorProbe.candidates(locatorResponse)) {
+                if (!"css".equals(candidate.get(0))) continue;
+                for (String part : splitGroup(candidate.get(1))) {
+                    if (!unique.contains(part) && count(List.of("css", part)) == 1) unique.add(part);
+                }
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        if (unique.isEmpty()) return null;
+        return new JSONObject()
+                .put("primary", unique.get(0))
+                .put("fallback", unique.size() > 1 ? unique.get(1) : "")
+                .toString();
+    }
+
+    /** Matches in the snapshot; {@link #INVALID} for a syntax error, {@link #UNCHECKED} if jsoup cannot tell. */
+    private int count(List<String> candidate) {
+        try {
+            List<Element> elements = matches(candidate);
+            return elements == null ? UNCHECKED : elements.size();
+        } catch (XPathExpressionException e) {
+            return INVALID;
+        }
+    }
+
+    /** Elements of the snapshot the locator matches, or null if jsoup cannot evaluate the CSS. */
+    private List<Element> matches(List<String> candidate) throws XPathExpressionException {
+        String expression = candidate.get(1);
+        if ("xpath".equals(candidate.get(0))) {
+            NodeList nodes = (NodeList) XPATH.get().evaluate(expression, dom.w3c(), XPathConstants.NODESET);
+            List<Element> elements = new ArrayList<>();
+            for (int i = 0; i < nodes.getLength(); i++) {
+                if (nodes.item(i).getNodeType() != Node.ELEMENT_NODE) continue;
+                // W3CDom keeps the jsoup element each node was built from
+                Object source = nodes.item(i).getUserData(W3CDom.SourceProperty);
+                if (source instanceof Element) elements.add((Element) source);
+            }
+            return elements;
+        }
+        try {
+            return dom.document().select(expression);
+        } catch (Selector.SelectorParseException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String outcome(int count) {
+        if (count == INVALID) return "is not a valid expression";
+        if (count == 0) return "matches no element in the page";
+        return "matches " + count + " elements, it must match exactly one";
+    }
+
+    private static String describe(List<String> candidate) {
+        return "\"" + candidate.get(1) + "\"";
+    }
+
+    /** Top-level parts of a CSS selector group; commas inside brackets, parentheses or quotes do not split. */
+    private static List<String> splitGroup(String selector) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < selector.length(); i++) {
+            char ch = selector.charAt(i);
+            if (quote != 0) {
+                if (ch == '\\') i++;
+                else if (ch == quote) quote = 0;
+            } else if (ch == '\'' || ch == '"') {
+                quote = ch;
+            } else if (ch == '[' || ch == '(') {
+                depth++;
+            } else if (ch == ']' || ch == ')') {
+                depth--;
+            } else if (ch == ',' && depth == 0) {
+                parts.add(selector.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        parts.add(selector.substring(start).trim());
+        parts.removeIf(String::isEmpty);
+        return parts;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.utils;
+
+import org.openqa.selenium.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Condition-based waits that return the moment the page is ready, instead of fixed sleeps
+ * and a global implicit wait.
+ * - Settled: document ready, no recent fetch/XHR in flight and no DOM mutation for the quiet period.
+ * - Actionable elements are found by {@link LocatorProbe} with the same tracker and deadline.
+ * Page activity comes from js/page-activity.js, which BrowserPool installs before page scripts run.
+ * One instance per driver.
+ */
+public class PageWaits {
+
+    private static final Trace LOG = Trace.of(PageWaits.class);
+
+    // ---------- Config ----------
+    static final long TIMEOUT_MS = Long.getLong("fonio.wait.timeoutMs", 10_000L);
+    private static final long SETTLE_TIMEOUT_MS = Long.getLong("fonio.wait.settleTimeoutMs", 5_000L);
+    private static final long QUIET_MS = Long.getLong("fonio.wait.quietMs", 300L);
+    static final long POLL_MS = Long.getLong("fonio.wait.pollMs", 50L);
+    private static final long REQUEST_MAX_AGE_MS = Long.getLong("fonio.wait.requestMaxAgeMs", 5_000L);
+    private static final boolean FIXED_SLEEPS = Boolean.getBoolean("fonio.wait.fixedSleeps");
+
+    private static final String TRACKER = BrowserDomExtractor.loadScript("/js/page-activity.js");
+    private static final String ACTIVITY = TRACKER + "\nreturn window.__fonioActivity.activity(arguments[0]);";
+
+    private final WebDriver driver;
+
+    public PageWaits(WebDriver driver) {
+        this.driver = driver;
+    }
+
+    /** The activity tracker, for registration as a script that runs before every document. */
+    public static String trackerScript() {
+        return TRACKER;
+    }
+
+    /** True with -Dfonio.wait.fixedSleeps=true: "WaitFor" steps sleep their full duration as before. */
+    public static boolean fixedSleeps() {
+        return FIXED_SLEEPS;
+    }
+
+    // ---------- Conditions ----------
+
+    /** Waits up to -Dfonio.wait.settleTimeoutMs for the page to settle; see {@link #settle(long)}. */
+    public boolean settle() {
+        return settle(SETTLE_TIMEOUT_MS);
+    }
+
+    /**
+     * Returns true as soon as the document is complete, no request younger than
+     * -Dfonio.wait.requestMaxAgeMs is in flight and the DOM has been quiet for -Dfonio.wait.quietMs.
+     * Returns false at the deadline, or at once if the page cannot be scripted (e.g. an open alert).
+     */
+    public boolean settle(long timeoutMs) {
+        try (StepMetrics.Timer t = StepMetrics.start("settle")) {
+            return awaitSettled(timeoutMs);
+        }
+    }
+
+    private boolean awaitSettled(long timeoutMs) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            Map<?, ?> activity = activity();
+            if (activity == null) return false;
+            boolean ready = "complete".equals(activity.get("ready")) && number(activity.get("pending")) == 0;
+            long quiet = number(activity.get("quietMs"));
+            if (ready && quiet >= QUIET_MS) {
+                LOG.debug(() -> "Page settled after " + elapsedMs(start) + " ms");
+                return true;
+            }
+            if (System.nanoTime() >= deadline) {
+                LOG.debug(() -> "Page not settled after " + timeoutMs + " ms (ready: " + activity.get("ready")
+                        + ", pending requests: " + activity.get("pending") + ", quiet for " + quiet + " ms)");
+                return false;
+            }
+            // A ready page only needs the rest of its quiet period
+            pause(ready ? Math.max(POLL_MS, QUIET_MS - quiet) : POLL_MS, deadline);
+        }
+    }
+
+    /** Waits up to -Dfonio.wait.timeoutMs; see {@link #until(BooleanSupplier, long)}. */
+    public boolean until(BooleanSupplier condition) {
+        return until(condition, TIMEOUT_MS);
+    }
+
+    /** Polls the condition until it holds (true) or the timeout passes (false). */
+    public boolean until(BooleanSupplier condition, long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            try {
+                if (condition.getAsBoolean()) return true;
+            } catch (WebDriverException e) {
+                // Page in transition; try again
+            }
+            if (System.nanoTime() >= deadline) return false;
+            pause(POLL_MS, deadline);
+        }
+    }
+
+    /** True if the page source contains the text, checked in the page without transferring it. */
+    public boolean pageContains(String text) {
+        Object found = JfrEvents.driverCommand("page contains", text, () -> ((JavascriptExecutor) driver).executeScript(
+                "return document.documentElement.outerHTML.indexOf(arguments[0]) >= 0;", text));
+        return Boolean.TRUE.equals(found);
+    }
+
+    /** True if the rendered, visible text of the page contains the text. */
+    public boolean visibleTextContains(String text) {
+        Object found = JfrEvents.driverCommand("visible text contains", text, () -> ((JavascriptExecutor) driver).executeScript(
+                "return !!document.body && document.body.innerText.indexOf(arguments[0]) >= 0;", text));
+        return Boolean.TRUE.equals(found);
+    }
+
+    // ---------- Helpers ----------
+
+    private Map<?, ?> activity() {
+        try {
+            Object result = JfrEvents.driverCommand("page activity", null,
+                    () -> ((JavascriptExecutor) driver).executeScript(ACTIVITY, REQUEST_MAX_AGE_MS));
+            return result instanceof Map ? (Map<?, ?>) result : null;
+        } catch (WebDriverException e) {
+            LOG.warn(() -> "Page activity unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long number(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /** Sleeps for the interval, but not past the deadline. */
+    static void pause(long millis, long deadlineNanos) {
+        long left = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        try {
+            Thread.sleep(Math.max(1, Math.min(millis, left)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
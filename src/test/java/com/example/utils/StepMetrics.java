@@ -0,0 +1,107 @@
+package com.example.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-step phase timers and counters, collected on the thread that runs the step.
+ * - Phases: {@code try (StepMetrics.Timer t = StepMetrics.start("llm")) { ... }}. Nested timers
+ *   are subtracted from the enclosing one, so the phases of a step add up to at most its duration.
+ * - Counters: {@link #count}, {@link #add}.
+ * Work outside a step (async prefetch, hooks) goes to the background totals.
+ * Reported by com.example.plugins.StepMetricsReporter.
+ */
+public final class StepMetrics {
+
+    private static final ThreadLocal<Step> CURRENT = new ThreadLocal<>();
+    private static final ThreadLocal<Timer> OPEN = new ThreadLocal<>();
+    private static final Step BACKGROUND = new Step();
+
+    private StepMetrics() {
+    }
+
+    /** Phase nanoseconds and counters of one step. */
+    public static final class Step {
+        private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+        private final Map<String, Long> counters = new LinkedHashMap<>();
+
+        synchronized void addPhase(String phase, long nanos) {
+            phaseNanos.merge(phase, nanos, Long::sum);
+        }
+
+        synchronized void addCount(String counter, long amount) {
+            counters.merge(counter, amount, Long::sum);
+        }
+
+        public synchronized Map<String, Long> phaseNanos() {
+            return new LinkedHashMap<>(phaseNanos);
+        }
+
+        public synchronized Map<String, Long> counters() {
+            return new LinkedHashMap<>(counters);
+        }
+    }
+
+    /** Times one phase until closed. */
+    public static final class Timer implements AutoCloseable {
+        private final String phase;
+        private final Timer parent;
+        private final Step step;
+        private final long start = System.nanoTime();
+        private long childNanos;
+
+        private Timer(String phase, Timer parent, Step step) {
+            this.phase = phase;
+            this.parent = parent;
+            this.step = step;
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            step.addPhase(phase, elapsed - childNanos);
+            if (parent != null) parent.childNanos += elapsed;
+            OPEN.set(parent);
+        }
+    }
+
+    // ---------- Recording ----------
+
+    public static Timer start(String phase) {
+        Timer timer = new Timer(phase, OPEN.get(), current());
+        OPEN.set(timer);
+        return timer;
+    }
+
+    public static void count(String counter) {
+        add(counter, 1);
+    }
+
+    public static void add(String counter, long amount) {
+        current().addCount(counter, amount);
+    }
+
+    // ---------- Step boundaries (reporter) ----------
+
+    public static void beginStep() {
+        CURRENT.set(new Step());
+        OPEN.remove();
+    }
+
+    /** The finished step's metrics, or null if none was begun on this thread. */
+    public static Step endStep() {
+        Step step = CURRENT.get();
+        CURRENT.remove();
+        OPEN.remove();
+        return step;
+    }
+
+    public static Step background() {
+        return BACKGROUND;
+    }
+
+    private static Step current() {
+        Step step = CURRENT.get();
+        return step != null ? step : BACKGROUND;
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.utils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Leveled logging for the hot paths (DOM filtering, LLM calls, steps).
+ * - Level: -Dfonio.log.level=TRACE|DEBUG|INFO|WARN|ERROR|OFF (INFO). Messages are suppliers,
+ *   built only when their level is on, so a default run never formats DEBUG/TRACE text.
+ * - Output: records go to a bounded ring buffer (-Dfonio.log.bufferSize, 8192) drained by one
+ *   daemon thread to stdout (WARN and ERROR to stderr). Timestamps, thread names and stack traces
+ *   are formatted there, not on the step thread. When the buffer is full, records below WARN are
+ *   dropped and counted; WARN/ERROR and prompt captures wait for room.
+ * - Prompt capture: -Dfonio.log.prompts=true writes every prompt and the model's answer to
+ *   -Dfonio.log.promptDir (target/fonio-prompts)/&lt;scenario&gt;/&lt;nn&gt;-&lt;label&gt;.txt.
+ */
+public final class Trace {
+
+    public enum Level { TRACE, DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final Level THRESHOLD = Level.valueOf(
+            System.getProperty("fonio.log.level", "INFO").trim().toUpperCase(Locale.ROOT));
+    private static final int BUFFER_SIZE = Integer.getInteger("fonio.log.bufferSize", 8_192);
+    private static final boolean CAPTURE_PROMPTS = Boolean.getBoolean("fonio.log.prompts");
+    private static final Path PROMPT_DIR = Paths.get(System.getProperty("fonio.log.promptDir", "target/fonio-prompts"));
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final int DRAIN_BATCH = 256;
+
+    private static final BlockingQueue<Record> BUFFER = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicInteger PENDING = new AtomicInteger();
+    private static final Object WRITE_LOCK = new Object();
+
+    private static final ThreadLocal<Scenario> SCENARIO = new ThreadLocal<>();
+    private static final AtomicInteger SCENARIOS = new AtomicInteger();
+
+    static {
+        Thread writer = new Thread(Trace::drainForever, "fonio-trace");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Trace::flush, "fonio-trace-flush"));
+    }
+
+    private final String source;
+
+    private Trace(String source) {
+        this.source = source;
+    }
+
+    public static Trace of(Class<?> owner) {
+        return new Trace(owner.getSimpleName());
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(THRESHOLD) >= 0;
+    }
+
+    // ---------- Logging ----------
+
+    public void trace(Supplier<String> message) {
+        log(Level.TRACE, message, null);
+    }
+
+    public void debug(Supplier<String> message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public void info(Supplier<String> message) {
+        log(Level.INFO, message, null);
+    }
+
+    public void warn(Supplier<String> message) {
+        log(Level.WARN, message, null);
+    }
+
+    public void error(Supplier<String> message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    public void log(Level level, Supplier<String> message, Throwable error) {
+        if (isEnabled(level)) enqueue(new Record(level, source, message.get(), error, null));
+    }
+
+    // ---------- Prompt capture ----------
+
+    /** Starts a prompt directory for the scenario running on this thread. */
+    public static void beginScenario(String name) {
+        if (!CAPTURE_PROMPTS) return;
+        SCENARIO.set(new Scenario(PROMPT_DIR.resolve(String.format("%03d-%s", SCENARIOS.incrementAndGet(), slug(name)))));
+    }
+
+    public static void endScenario() {
+        SCENARIO.remove();
+    }
+
+    /**
+     * Numbers a prompt in the current scenario; pass the answer to the returned capture when it
+     * arrives, from any thread. A no-op unless -Dfonio.log.prompts is set.
+     */
+    public static Capture prompt(String label, String prompt) {
+        if (!CAPTURE_PROMPTS) return Capture.NONE;
+        Scenario scenario = SCENARIO.get();
+        Path dir = scenario != null ? scenario.dir : PROMPT_DIR.resolve("no-scenario");
+        int number = scenario != null ? scenario.prompts.incrementAndGet() : SCENARIOS.incrementAndGet();
+        return new Capture(dir.resolve(String.format("%02d-%s.txt", number, slug(label))), prompt);
+    }
+
+    /** One captured prompt, written together with its answer. */
+    public static class Capture {
+        static final Capture NONE = new Capture(null, null);
+
+        private final Path file;
+        private final String prompt;
+
+        private Capture(Path file, String prompt) {
+            this.file = file;
+            this.prompt = prompt;
+        }
+
+        public boolean isEnabled() {
+            return file != null;
+        }
+
+        /** Writes the prompt and the answer; answer is null and error set when the call failed. */
+        public void answered(String answer, Throwable error) {
+            if (file == null) return;
+            String text = prompt + "\n\n---------- answer ----------\n\n"
+                    + (answer != null ? answer : "(no answer: " + error + ")") + "\n";
+            enqueue(new Record(Level.INFO, null, text, null, file));
+        }
+    }
+
+    private static final class Scenario {
+        final Path dir;
+        final AtomicInteger prompts = new AtomicInteger();
+
+        Scenario(Path dir) {
+            this.dir = dir;
+        }
+    }
+
+    // ---------- Ring buffer ----------
+
+    private static final class Record {
+        final long millis = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final Level level;
+        final String source;
+        final String message;
+        final Throwable error;
+        final Path file;   // set for captured prompts
+
+        Record(Level level, String source, String message, Throwable error, Path file) {
+            this.level = level;
+            this.source = source;
+            this.message = message;
+            this.error = error;
+            this.file = file;
+        }
+    }
+
+    private static void enqueue(Record record) {
+        PENDING.incrementAndGet();
+        if (BUFFER.offer(record)) return;
+        if (record.level.compareTo(Level.WARN) < 0 && record.file == null) {
+            PENDING.decrementAndGet();
+            DROPPED.incrementAndGet();
+            return;
+        }
+        try {
+            BUFFER.put(record);
+        } catch (InterruptedException e) {
+            PENDING.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void drainForever() {
+        List<Record> batch = new ArrayList<>(DRAIN_BATCH);
+        while (true) {
+            try {
+                batch.add(BUFFER.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            BUFFER.drainTo(batch, DRAIN_BATCH - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes whatever is buffered and waits briefly for a batch the writer thread already took;
+     * runs at shutdown so the last records are not lost.
+     */
+    static void flush() {
+        List<Record> batch = new ArrayList<>();
+        BUFFER.drainTo(batch);
+        write(batch);
+        long deadline = System.currentTimeMillis() + 1_000;
+        while (PENDING.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void write(List<Record> batch) {
+        synchronized (WRITE_LOCK) {
+            long dropped = DROPPED.getAndSet(0);
+            if (dropped > 0) System.err.println(TIME.format(Instant.now()) + " WARN  Trace - " + dropped + " log records dropped, buffer full");
+            for (Record record : batch) {
+                if (record.file != null) {
+                    writeFile(record);
+                    continue;
+                }
+                PrintStream out = record.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+                out.println(TIME.format(Instant.ofEpochMilli(record.millis)) + " " + String.format("%-5s", record.level)
+                        + " [" + record.thread + "] " + record.source + " - " + record.message);
+                if (record.error != null) record.error.printStackTrace(out);
+            }
+            PENDING.addAndGet(-batch.size());
+            System.out.flush();
+            System.err.flush();
+        }
+    }
+
+    private static void writeFile(Record record) {
+        try {
+            Files.createDirectories(record.file.getParent());
+            Files.writeString(record.file, record.message, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Failed to capture prompt to " + record.file + ": " + e.getMessage());
+        }
+    }
+
+    private static String slug(String text) {
+        String slug = text == null ? "" : text.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+        if (slug.isEmpty()) slug = "unnamed";
+        return slug.length() > 60 ? slug.substring(0, 60) : slug;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Walks the live DOM and returns its actionable, visible part as a JsonML string:
+ *   [tag, {attrs}, child...] where a child is a nested element array or a text string.
+ * Run through JavascriptExecutor by BrowserDomExtractor; applies the same rules as
+ * DomUtils.filterRelevantHtml, but with computed visibility instead of the style attribute:
+ * - Non-UI tags are skipped; elements hidden by computed style or aria-hidden are skipped
+ *   with their subtree unless they carry id, name or data-testid.
+ * - Elements are kept when actionable, when they hold visible text, or as ancestors of kept ones.
+ * - Attributes follow DomUtils' allow-list; decorative wrappers are unwrapped.
+ * - Open shadow roots and slotted content are walked in rendered order.
+ *
+ * Journal mode, arguments ('journal', epoch, forceFull), used by DomJournal:
+ * - A MutationObserver records changed nodes; emitted elements carry a key in attribute "#k".
+ * - Returns {epoch, full: tree} after navigation or on request, {epoch, unchanged: true},
+ *   or {epoch, patches: [{k, items}]} replacing each keyed element by its re-extracted items.
+ */
+var JOURNAL_LIMIT = 500; // changed nodes kept before a pull falls back to a full extraction
+var OBSERVE = { subtree: true, childList: true, attributes: true, characterData: true };
+
+var STRIP = {
+    script: 1, style: 1, noscript: 1, template: 1, svg: 1, canvas: 1, video: 1, audio: 1,
+    source: 1, track: 1, iframe: 1, object: 1, embed: 1, meta: 1, link: 1, head: 1
+};
+var ACTIONABLE = { a: 1, button: 1, input: 1, select: 1, option: 1, textarea: 1, label: 1 };
+var KEEP_ATTRS = {
+    id: 1, name: 1, type: 1, value: 1, placeholder: 1, title: 1, href: 1, src: 1, alt: 1,
+    'class': 1, role: 1, 'for': 1
+};
+var KEEP_PREFIXES = ['aria-', 'data-', 'force-', 'aura-', 'lightning-', 'slds-'];
+
+function identified(el) {
+    return el.hasAttribute('id') || el.hasAttribute('name') || el.hasAttribute('data-testid');
+}
+
+function keepAttr(key, value) {
+    if ((key === 'src' || key === 'href') && value.lastIndexOf('data:', 0) === 0) return false;
+    if (KEEP_ATTRS[key]) return true;
+    for (var i = 0; i < KEEP_PREFIXES.length; i++) {
+        if (key.lastIndexOf(KEEP_PREFIXES[i], 0) === 0) return true;
+    }
+    return false;
+}
+
+function attrs(el) {
+    var out = {};
+    for (var i = 0; i < el.attributes.length; i++) {
+        var a = el.attributes[i];
+        if (keepAttr(a.name, a.value)) out[a.name] = a.value;
+    }
+    return out;
+}
+
+/** Same conditions as DomUtils.unwrapNonKeptTags. */
+function unwrapped(tag, el, elementChildren) {
+    if (tag === 'span') {
+        return !el.hasAttribute('id') && !el.hasAttribute('class') && !el.hasAttribute('data-testid')
+            && elementChildren <= 1;
+    }
+    return (tag === 'font' || tag === 'b' || tag === 'i' || tag === 'u')
+        && !el.hasAttribute('id') && !el.hasAttribute('class');
+}
+
+function renderedChildren(el) {
+    if (el.localName === 'slot' && el.assignedNodes) {
+        var assigned = el.assignedNodes({ flatten: true });
+        if (assigned.length) return assigned;
+    }
+    return el.shadowRoot ? el.shadowRoot.childNodes : el.childNodes;
+}
+
+// Journal state for this call; both stay null for a one-shot extraction
+var journal = null;
+var keys = null;
+
+/** Returns the JsonML items this element contributes to its parent (none, itself, or its children). */
+function walk(el) {
+    var tag = el.localName;
+    if (STRIP[tag]) return dropped(el);
+    var style = window.getComputedStyle(el);
+    var invisible = style.display === 'none' || el.getAttribute('aria-hidden') === 'true';
+    if (invisible && !identified(el)) return dropped(el);
+    var shown = !invisible && style.visibility !== 'hidden' && style.visibility !== 'collapse';
+    if (journal && el.shadowRoot) journal.observer.observe(el.shadowRoot, OBSERVE);
+
+    var items = [];
+    var elementChildren = 0;
+    var kids = renderedChildren(el);
+    for (var i = 0; i < kids.length; i++) {
+        var kid = kids[i];
+        if (kid.nodeType === 3) {
+            var text = kid.nodeValue.replace(/\s+/g, ' ');
+            if (shown && text.trim()) items.push(text);
+        } else if (kid.nodeType === 1) {
+            var sub = walk(kid);
+            for (var j = 0; j < sub.length; j++) {
+                if (typeof sub[j] !== 'string') elementChildren++;
+                items.push(sub[j]);
+            }
+        }
+    }
+
+    var keep = items.length > 0 || invisible
+        || (shown && (ACTIONABLE[tag] || el.hasAttribute('role')));
+    if (!keep) return dropped(el);
+    if (unwrapped(tag, el, elementChildren)) {
+        dropped(el);
+        return items;
+    }
+    var a = attrs(el);
+    if (keys) {
+        var key = keys.get(el) || ++journal.next;
+        keys.set(el, key);
+        a['#k'] = key;
+    }
+    return [[tag, a].concat(items)];
+}
+
+/** An element that is not emitted loses its key, so patches never target it. */
+function dropped(el) {
+    if (keys) keys['delete'](el);
+    return [];
+}
+
+function extractBody() {
+    var tree = document.body ? walk(document.body)[0] : null;
+    return tree || ['body', {}];
+}
+
+// ---------- Journal ----------
+
+function install() {
+    var previous = window.__fonioJournal;
+    if (previous) previous.observer.disconnect();
+    var j = {
+        epoch: Date.now().toString(36) + Math.random().toString(36).slice(2, 8),
+        next: 0,
+        keys: new WeakMap(),
+        dirty: new Set(),
+        overflow: false
+    };
+    j.observer = new MutationObserver(function (records) { record(j, records); });
+    j.observer.observe(document, OBSERVE);
+    window.__fonioJournal = j;
+    return j;
+}
+
+function record(j, records) {
+    for (var i = 0; i < records.length; i++) {
+        if (j.dirty.size >= JOURNAL_LIMIT) {
+            j.overflow = true;
+            return;
+        }
+        j.dirty.add(records[i].target);
+    }
+}
+
+function parentOf(node) {
+    return node.nodeType === 11 ? node.host : node.parentNode;
+}
+
+/** Nearest emitted element at or above the node; null when only a full extraction covers it. */
+function keyedAncestor(node) {
+    var cur = node.nodeType === 1 ? node : parentOf(node);
+    while (cur && cur.nodeType !== 9) {
+        if (cur === document.body || cur === document.documentElement) return null;
+        if (cur.nodeType === 1 && keys.has(cur)) return cur;
+        cur = parentOf(cur);
+    }
+    return null;
+}
+
+function depthOf(node) {
+    var depth = 0;
+    for (var cur = node; cur; cur = parentOf(cur)) depth++;
+    return depth;
+}
+
+function within(node, set) {
+    for (var cur = node; cur; cur = parentOf(cur)) {
+        if (set.has(cur)) return true;
+    }
+    return false;
+}
+
+function full() {
+    journal = install();
+    keys = journal.keys;
+    return { epoch: journal.epoch, full: extractBody() };
+}
+
+function pull(epoch, forceFull) {
+    journal = window.__fonioJournal || null;
+    if (!journal || forceFull || journal.epoch !== epoch) return full();
+    keys = journal.keys;
+    record(journal, journal.observer.takeRecords());
+    if (journal.overflow) return full();
+    if (!journal.dirty.size) return { epoch: journal.epoch, unchanged: true };
+
+    var dirty = [];
+    journal.dirty.forEach(function (node) { dirty.push(node); });
+    journal.dirty = new Set();
+
+    // Nodes removed since are covered by the childList record on their old parent
+    var anchors = [];
+    var seen = new Set();
+    for (var i = 0; i < dirty.length; i++) {
+        if (!dirty[i].isConnected) continue;
+        var anchor = keyedAncestor(dirty[i]);
+        if (!anchor) return full();
+        if (!seen.has(anchor)) {
+            seen.add(anchor);
+            anchors.push(anchor);
+        }
+    }
+    anchors.sort(function (x, y) { return depthOf(x) - depthOf(y); });
+
+    // Re-extract each anchor; climb while it no longer maps to exactly one element
+    var patched = new Set();
+    var patches = [];
+    for (var a = 0; a < anchors.length; a++) {
+        var target = anchors[a];
+        if (within(target, patched)) continue;
+        var key, items;
+        while (true) {
+            key = keys.get(target);
+            items = walk(target);
+            if (items.length === 1 && typeof items[0] !== 'string') break;
+            target = keyedAncestor(parentOf(target));
+            if (!target) return full();
+        }
+        patched.add(target);
+        patches.push({ k: key, items: items });
+    }
+    return { epoch: journal.epoch, patches: patches };
+}
+
+if (arguments[0] === 'journal') return JSON.stringify(pull(arguments[1], arguments[2] === true));
+return JSON.stringify(extractBody());
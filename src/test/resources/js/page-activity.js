@@ -0,0 +1,104 @@
+/*
+ * Page activity tracker read by PageWaits; installs window.__fonioActivity once per document.
+ * BrowserPool registers it to run before any page script, so requests started while the page
+ * loads are counted too; on other drivers the first poll installs it.
+ * - Tracks fetch and XMLHttpRequest calls that have not finished.
+ * - Counts DOM mutations and remembers when the page last changed.
+ * - activity(maxAgeMs): { ready, pending, mutations, quietMs } of the current document; requests
+ *   running longer than maxAgeMs (long-polls, streams) are not counted as pending.
+ * - actionable(el): the element's rect as "x,y,w,h" when it is visible, enabled and the
+ *   topmost element at its centre, else null. Equal rects on two polls mean it stopped moving.
+ * No top-level return: the same source is evaluated by CDP and by JavascriptExecutor.
+ */
+(function () {
+    if (window.__fonioActivity) return;
+    var a = window.__fonioActivity = { inflight: {}, next: 0, mutations: 0, last: Date.now() };
+
+    function changed() {
+        a.last = Date.now();
+    }
+
+    function started() {
+        var id = a.next++;
+        a.inflight[id] = Date.now();
+        changed();
+        return function () {
+            if (!(id in a.inflight)) return;
+            delete a.inflight[id];
+            changed();
+        };
+    }
+
+    if (window.fetch) {
+        var fetch = window.fetch;
+        window.fetch = function () {
+            var done = started();
+            try {
+                var result = fetch.apply(this, arguments);
+                result.then(done, done);
+                return result;
+            } catch (e) {
+                done();
+                throw e;
+            }
+        };
+    }
+
+    if (window.XMLHttpRequest) {
+        var send = XMLHttpRequest.prototype.send;
+        XMLHttpRequest.prototype.send = function () {
+            var done = started();
+            this.addEventListener('loadend', done);
+            try {
+                return send.apply(this, arguments);
+            } catch (e) {
+                done();
+                throw e;
+            }
+        };
+    }
+
+    new MutationObserver(function (records) {
+        a.mutations += records.length;
+        changed();
+    }).observe(document, { subtree: true, childList: true, attributes: true, characterData: true });
+    document.addEventListener('readystatechange', changed);
+
+    a.activity = function (maxAgeMs) {
+        var now = Date.now(), pending = 0;
+        for (var id in a.inflight) {
+            if (now - a.inflight[id] < maxAgeMs) pending++;
+        }
+        return {
+            ready: document.readyState,
+            pending: pending,
+            mutations: a.mutations,
+            quietMs: now - a.last
+        };
+    };
+
+    a.actionable = function (el) {
+        if (!el || !el.isConnected || el.disabled) return null;
+        var style = getComputedStyle(el);
+        if (style.visibility === 'hidden' || style.display === 'none' || style.pointerEvents === 'none') return null;
+        var r = el.getBoundingClientRect();
+        if (r.width === 0 || r.height === 0) return null;
+        if (r.bottom < 0 || r.right < 0 || r.top > innerHeight || r.left > innerWidth) {
+            el.scrollIntoView({ block: 'center', inline: 'center' });
+            r = el.getBoundingClientRect();
+        }
+
+        // Topmost element at the centre, looking through open shadow roots
+        var x = r.left + r.width / 2, y = r.top + r.height / 2;
+        var hit = document.elementFromPoint(x, y);
+        while (hit && hit.shadowRoot) {
+            var inner = hit.shadowRoot.elementFromPoint(x, y);
+            if (!inner || inner === hit) break;
+            hit = inner;
+        }
+        var covered = !hit || !(hit === el || el.contains(hit) || hit.control === el
+                || (hit.getRootNode() !== document && hit.getRootNode().host === el));
+        if (covered) return null;
+        return [Math.round(r.left), Math.round(r.top), Math.round(r.width), Math.round(r.height)].join(',');
+    };
+})();
@@ -0,0 +1,49 @@
+/*
+ * Evaluates several locators in one call; run by LocatorProbe after page-activity.js.
+ * arguments[0]: [[kind, expression], ...] with kind 'css' or 'xpath', in order of preference.
+ * arguments[1]: true to check actionability, which may scroll the first match into view.
+ * Returns one entry per locator: { count, total, element, rect }
+ * - count: number of rendered matches, -1 if the expression is invalid. Hidden copies (display:none,
+ *   visibility:hidden, no box) do not count, as the filtered snapshot LocatorValidator checks against
+ *   has none of them either.
+ * - total: number of matching elements, rendered or not.
+ * - element: the first rendered match, else the first match as Selenium's findElement would return it.
+ * - rect: that element's rect when it is actionable (see page-activity.js), else null;
+ *   always null without arguments[1].
+ */
+var probes = arguments[0];
+var withRects = arguments[1] === true;
+var results = [];
+function rendered(el) {
+    if (typeof el.checkVisibility === 'function') return el.checkVisibility({ visibilityProperty: true });
+    return el.getClientRects().length > 0 && getComputedStyle(el).visibility === 'visible';
+}
+for (var i = 0; i < probes.length; i++) {
+    var kind = probes[i][0], expression = probes[i][1];
+    var nodes = [];
+    try {
+        if (kind === 'xpath') {
+            var snapshot = document.evaluate(expression, document, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);
+            for (var j = 0; j < snapshot.snapshotLength; j++) {
+                if (snapshot.snapshotItem(j).nodeType === 1) nodes.push(snapshot.snapshotItem(j));
+            }
+        } else {
+            nodes = document.querySelectorAll(expression);
+        }
+    } catch (e) {
+        results.push({ count: -1, total: -1, element: null, rect: null });
+        continue;
+    }
+    var shown = [];
+    for (var k = 0; k < nodes.length; k++) {
+        if (rendered(nodes[k])) shown.push(nodes[k]);
+    }
+    var first = shown.length ? shown[0] : nodes.length ? nodes[0] : null;
+    results.push({
+        count: shown.length,
+        total: nodes.length,
+        element: first,
+        rect: first && withRects ? window.__fonioActivity.actionable(first) : null
+    });
+}
+return results;